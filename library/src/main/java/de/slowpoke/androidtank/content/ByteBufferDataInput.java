@@ -0,0 +1,233 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.content;
+
+import java.io.DataInput;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link DataInput} reading from a {@link ByteBuffer}, e.g. a file mapped by
+ * {@link #map(File)}, to restore {@link Persistable}s written by
+ * {@link ByteBufferDataOutput} or <code>DataOutputStream</code>. Reading
+ * advances the position of the buffer, reading past its limit throws an
+ * {@link EOFException}.
+ */
+public class ByteBufferDataInput implements DataInput {
+
+	private final ByteBuffer buffer;
+
+	private char[] chars = new char[0];
+
+	/**
+	 * @param buffer
+	 *            the buffer to read from its position on, its order is set to
+	 *            big endian as {@link DataInput} requires.
+	 */
+	public ByteBufferDataInput(ByteBuffer buffer) {
+		if (buffer == null) {
+			throw new NullPointerException("buffer");
+		}
+		this.buffer = buffer;
+		buffer.order(ByteOrder.BIG_ENDIAN);
+	}
+
+	/**
+	 * Map a file read only. The mapping stays valid until it is garbage
+	 * collected, the file is closed right away. Files larger than 2GB can't be
+	 * mapped at once.
+	 */
+	public static ByteBufferDataInput map(File file) throws IOException {
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			final FileChannel channel = in.getChannel();
+			return new ByteBufferDataInput(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the buffer read from.
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return whether there are bytes left to read, e.g. to detect the end of
+	 *         a sequence of records.
+	 */
+	public boolean hasRemaining() {
+		return buffer.hasRemaining();
+	}
+
+	private ByteBuffer require(int bytes) throws EOFException {
+		if (buffer.remaining() < bytes) {
+			throw new EOFException("Reading " + bytes + " bytes, " + buffer.remaining() + " left");
+		}
+		return buffer;
+	}
+
+	@Override
+	public void readFully(byte[] b) throws IOException {
+		readFully(b, 0, b.length);
+	}
+
+	@Override
+	public void readFully(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException("Bytes " + off + " to " + (off + len) + ", size " + b.length);
+		}
+		require(len).get(b, off, len);
+	}
+
+	@Override
+	public int skipBytes(int n) {
+		final int skipped = Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + skipped);
+		return skipped;
+	}
+
+	@Override
+	public boolean readBoolean() throws IOException {
+		return require(1).get() != 0;
+	}
+
+	@Override
+	public byte readByte() throws IOException {
+		return require(1).get();
+	}
+
+	@Override
+	public int readUnsignedByte() throws IOException {
+		return require(1).get() & 0xff;
+	}
+
+	@Override
+	public short readShort() throws IOException {
+		return require(2).getShort();
+	}
+
+	@Override
+	public int readUnsignedShort() throws IOException {
+		return require(2).getShort() & 0xffff;
+	}
+
+	@Override
+	public char readChar() throws IOException {
+		return require(2).getChar();
+	}
+
+	@Override
+	public int readInt() throws IOException {
+		return require(4).getInt();
+	}
+
+	@Override
+	public long readLong() throws IOException {
+		return require(8).getLong();
+	}
+
+	@Override
+	public float readFloat() throws IOException {
+		return require(4).getFloat();
+	}
+
+	@Override
+	public double readDouble() throws IOException {
+		return require(8).getDouble();
+	}
+
+	/**
+	 * Read a line of bytes as <code>DataInputStream.readLine()</code> does.
+	 *
+	 * @return the line without its terminator, or <code>null</code> at the
+	 *         end of the buffer.
+	 */
+	@Override
+	public String readLine() {
+		if (!buffer.hasRemaining()) {
+			return null;
+		}
+		final StringBuilder line = new StringBuilder();
+		while (buffer.hasRemaining()) {
+			final char c = (char) (buffer.get() & 0xff);
+			if (c == '\n') {
+				break;
+			}
+			if (c == '\r') {
+				if (buffer.hasRemaining() && buffer.get(buffer.position()) == '\n') {
+					buffer.get();
+				}
+				break;
+			}
+			line.append(c);
+		}
+		return line.toString();
+	}
+
+	/**
+	 * Read a string in modified UTF-8 as written by
+	 * {@link DataOutput#writeUTF(String)}.
+	 */
+	@Override
+	public String readUTF() throws IOException {
+		final int bytes = readUnsignedShort();
+		final ByteBuffer buffer = require(bytes);
+		if (chars.length < bytes) {
+			chars = new char[Math.max(bytes, 64)];
+		}
+		final char[] chars = this.chars;
+		final int end = buffer.position() + bytes;
+		int count = 0;
+		while (buffer.position() < end) {
+			final int a = buffer.get() & 0xff;
+			if (a < 0x80) {
+				chars[count++] = (char) a;
+			} else if ((a & 0xe0) == 0xc0) {
+				if (buffer.position() + 1 > end) {
+					throw new UTFDataFormatException("Malformed input: partial character at end");
+				}
+				final int b = buffer.get() & 0xff;
+				if ((b & 0xc0) != 0x80) {
+					throw new UTFDataFormatException("Malformed input around byte " + (buffer.position() - 1));
+				}
+				chars[count++] = (char) (((a & 0x1f) << 6) | (b & 0x3f));
+			} else if ((a & 0xf0) == 0xe0) {
+				if (buffer.position() + 2 > end) {
+					throw new UTFDataFormatException("Malformed input: partial character at end");
+				}
+				final int b = buffer.get() & 0xff;
+				final int c = buffer.get() & 0xff;
+				if ((b & 0xc0) != 0x80 || (c & 0xc0) != 0x80) {
+					throw new UTFDataFormatException("Malformed input around byte " + (buffer.position() - 2));
+				}
+				chars[count++] = (char) (((a & 0x0f) << 12) | ((b & 0x3f) << 6) | (c & 0x3f));
+			} else {
+				throw new UTFDataFormatException("Malformed input around byte " + (buffer.position() - 1));
+			}
+		}
+		return new String(chars, 0, count);
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.content;
+
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A {@link DataOutput} that collects the written values in a
+ * {@link ByteBuffer} and writes the buffer to a channel whenever it is full,
+ * e.g. to persist a {@link Persistable} to a file. Unlike
+ * <code>DataOutputStream</code> on top of a <code>FileOutputStream</code> it
+ * neither synchronizes nor passes single bytes to the underlying stream. The
+ * output is identical to that of <code>DataOutputStream</code>.
+ *
+ * <p>
+ * The buffer may be direct and can be reused for further outputs once this one
+ * is flushed. Like the streams, instances must not be used from several
+ * threads at once.
+ * </p>
+ */
+public class ByteBufferDataOutput implements DataOutput, Flushable, Closeable {
+
+	/**
+	 * Size of the buffer created by the constructors without a buffer.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+
+	/**
+	 * Write to a new file, or truncate an existing one.
+	 */
+	public ByteBufferDataOutput(File file) throws FileNotFoundException {
+		this(new FileOutputStream(file).getChannel());
+	}
+
+	public ByteBufferDataOutput(WritableByteChannel channel) {
+		this(channel, ByteBuffer.allocateDirect(DEFAULT_BUFFER_SIZE));
+	}
+
+	/**
+	 * @param buffer
+	 *            the buffer to collect values in, it is cleared and its order
+	 *            is set to big endian as {@link DataOutput} requires.
+	 */
+	public ByteBufferDataOutput(WritableByteChannel channel, ByteBuffer buffer) {
+		if (channel == null || buffer == null) {
+			throw new NullPointerException("ByteBufferDataOutput requires a channel and a buffer");
+		}
+		if (buffer.capacity() < 8) {
+			throw new IllegalArgumentException("Buffer too small: " + buffer.capacity());
+		}
+		this.channel = channel;
+		this.buffer = buffer;
+		buffer.clear();
+		buffer.order(ByteOrder.BIG_ENDIAN);
+	}
+
+	/**
+	 * Make room for the given number of bytes, at most the capacity of the
+	 * buffer.
+	 */
+	private ByteBuffer require(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			drain();
+		}
+		return buffer;
+	}
+
+	/**
+	 * Write the buffered bytes to the channel.
+	 */
+	private void drain() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		require(1).put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b) throws IOException {
+		write(b, 0, b.length);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException("Bytes " + off + " to " + (off + len) + ", size " + b.length);
+		}
+		if (len <= buffer.remaining()) {
+			buffer.put(b, off, len);
+			return;
+		}
+		drain();
+		if (len <= buffer.remaining()) {
+			buffer.put(b, off, len);
+		} else {
+			// larger than the buffer, write it right away
+			final ByteBuffer wrapped = ByteBuffer.wrap(b, off, len);
+			while (wrapped.hasRemaining()) {
+				channel.write(wrapped);
+			}
+		}
+	}
+
+	@Override
+	public void writeBoolean(boolean v) throws IOException {
+		require(1).put((byte) (v ? 1 : 0));
+	}
+
+	@Override
+	public void writeByte(int v) throws IOException {
+		require(1).put((byte) v);
+	}
+
+	@Override
+	public void writeShort(int v) throws IOException {
+		require(2).putShort((short) v);
+	}
+
+	@Override
+	public void writeChar(int v) throws IOException {
+		require(2).putChar((char) v);
+	}
+
+	@Override
+	public void writeInt(int v) throws IOException {
+		require(4).putInt(v);
+	}
+
+	@Override
+	public void writeLong(long v) throws IOException {
+		require(8).putLong(v);
+	}
+
+	@Override
+	public void writeFloat(float v) throws IOException {
+		require(4).putFloat(v);
+	}
+
+	@Override
+	public void writeDouble(double v) throws IOException {
+		require(8).putDouble(v);
+	}
+
+	@Override
+	public void writeBytes(String s) throws IOException {
+		for (int i = 0, length = s.length(); i < length; i++) {
+			require(1).put((byte) s.charAt(i));
+		}
+	}
+
+	@Override
+	public void writeChars(String s) throws IOException {
+		for (int i = 0, length = s.length(); i < length; i++) {
+			require(2).putChar(s.charAt(i));
+		}
+	}
+
+	/**
+	 * Write a string in modified UTF-8 as
+	 * <code>DataOutputStream.writeUTF(String)</code> does.
+	 */
+	@Override
+	public void writeUTF(String s) throws IOException {
+		final int length = s.length();
+		int bytes = 0;
+		for (int i = 0; i < length; i++) {
+			final char c = s.charAt(i);
+			bytes += c >= 0x0001 && c <= 0x007f ? 1 : c <= 0x07ff ? 2 : 3;
+		}
+		if (bytes > 0xffff) {
+			throw new UTFDataFormatException("Encoded string too long: " + bytes + " bytes");
+		}
+
+		require(2).putShort((short) bytes);
+		for (int i = 0; i < length; i++) {
+			final char c = s.charAt(i);
+			final ByteBuffer buffer = require(3);
+			if (c >= 0x0001 && c <= 0x007f) {
+				buffer.put((byte) c);
+			} else if (c <= 0x07ff) {
+				buffer.put((byte) (0xc0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3f)));
+			} else {
+				buffer.put((byte) (0xe0 | (c >> 12)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+				buffer.put((byte) (0x80 | (c & 0x3f)));
+			}
+		}
+	}
+
+	/**
+	 * Write the buffered bytes to the channel.
+	 */
+	@Override
+	public void flush() throws IOException {
+		drain();
+	}
+
+	/**
+	 * Flush the buffer and close the channel.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			drain();
+		} finally {
+			channel.close();
+		}
+	}
+}
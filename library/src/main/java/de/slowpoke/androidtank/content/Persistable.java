@@ -21,7 +21,12 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import android.os.BadParcelableException;
 import android.os.Parcelable;
@@ -78,6 +83,11 @@ import android.util.Log;
  * 	}
  * }
  * </pre>
+ * 
+ * <p>
+ * Instead of writing these methods by hand, they can be generated from
+ * annotated fields, see {@link PersistableClass}.
+ * </p>
  */
 public interface Persistable extends
 		Parcelable {
@@ -104,22 +114,131 @@ public interface Persistable extends
 
 	}
 
+	/**
+	 * Looks up the {@link Persister} of {@link Persistable} classes. Persisters
+	 * are read from the <code>CREATOR</code> field on first use and cached per
+	 * class, class names are cached per class loader. Persisters can also be
+	 * registered up front, e.g. to avoid reflection altogether. All methods
+	 * may be called from any thread.
+	 * 
+	 * <p>
+	 * The caches only hold weak references to classes, class loaders and
+	 * persisters, so they don't keep a class loader from being unloaded.
+	 * Persisters therefore have to be reachable from their class, like the
+	 * <code>CREATOR</code> field or the generated persisters are.
+	 * </p>
+	 */
 	public static final class Helper {
 
 		private static final String TAG = "Persistable.Helper";
 
-		public static <T extends Persistable> Persistable.Persister<T> getPersistablePersister(Class<T> clazz,
-				ClassLoader loader) {
-			String name = clazz.getName();
-			return getPersistablePersister(name, loader);
+		private static final Map<Class<?>, WeakReference<Persistable.Persister<?>>> PERSISTERS = Collections
+				.synchronizedMap(new WeakHashMap<Class<?>, WeakReference<Persistable.Persister<?>>>());
+
+		/**
+		 * Names of registered classes, which resolve to these classes for any
+		 * class loader.
+		 */
+		private static final ConcurrentHashMap<String, WeakReference<Class<?>>> REGISTERED = new ConcurrentHashMap<String, WeakReference<Class<?>>>();
+
+		/**
+		 * Resolved class names by class loader, {@link Helper} stands in for
+		 * the loader of this class.
+		 */
+		private static final Map<Object, ConcurrentHashMap<String, WeakReference<Class<?>>>> RESOLVED = Collections
+				.synchronizedMap(new WeakHashMap<Object, ConcurrentHashMap<String, WeakReference<Class<?>>>>());
+
+		/**
+		 * Register the {@link Persister} of a class, so it is neither looked
+		 * up by reflection nor the class by its name. A registered persister
+		 * replaces the <code>CREATOR</code> of the class for all lookups as
+		 * long as it is reachable, e.g. from a static field.
+		 */
+		public static <T extends Persistable> void register(Class<T> clazz, Persistable.Persister<T> persister) {
+			if (clazz == null || persister == null) {
+				throw new NullPointerException("Persistable.Helper.register requires a class and a persister");
+			}
+			PERSISTERS.put(clazz, new WeakReference<Persistable.Persister<?>>(persister));
+			REGISTERED.put(clazz.getName(), new WeakReference<Class<?>>(clazz));
+		}
+
+		public static <T extends Persistable> Persistable.Persister<T> getPersistablePersister(Class<T> clazz) {
+			final WeakReference<Persistable.Persister<?>> reference = PERSISTERS.get(clazz);
+			@SuppressWarnings("unchecked")
+			Persistable.Persister<T> creator = reference == null ? null : (Persistable.Persister<T>) reference.get();
+			if (creator == null) {
+				if (clazz.isAnnotationPresent(PersistableClass.class)) {
+					Log.w(TAG, "No registered persister for " + clazz.getName()
+							+ ", falling back to its CREATOR. Call register() of the generated index,"
+							+ " e.g. PersistableIndex.register(), before restoring persistables.");
+				}
+				creator = getCreator(clazz);
+				synchronized (PERSISTERS) {
+					final WeakReference<Persistable.Persister<?>> existing = PERSISTERS.get(clazz);
+					@SuppressWarnings("unchecked")
+					final Persistable.Persister<T> registered = existing == null ? null
+							: (Persistable.Persister<T>) existing.get();
+					if (registered != null) {
+						creator = registered;
+					} else {
+						PERSISTERS.put(clazz, new WeakReference<Persistable.Persister<?>>(creator));
+					}
+				}
+			}
+			return creator;
 		}
 
 		public static <T extends Persistable> Persistable.Persister<T> getPersistablePersister(String className,
 				ClassLoader loader) {
+			Class<T> c = get(REGISTERED, className);
+			if (c == null) {
+				c = resolve(className, loader);
+			}
+			return getPersistablePersister(c);
+		}
+
+		@SuppressWarnings("unchecked")
+		private static <T> Class<T> get(ConcurrentHashMap<String, WeakReference<Class<?>>> classes, String className) {
+			final WeakReference<Class<?>> reference = classes.get(className);
+			if (reference == null) {
+				return null;
+			}
+			final Class<T> c = (Class<T>) reference.get();
+			if (c == null) {
+				// the class was unloaded
+				classes.remove(className, reference);
+			}
+			return c;
+		}
 
+		@SuppressWarnings("unchecked")
+		private static <T extends Persistable> Class<T> resolve(String className, ClassLoader loader) {
+			final Object key = loader == null ? Helper.class : loader;
+			ConcurrentHashMap<String, WeakReference<Class<?>>> classes;
+			synchronized (RESOLVED) {
+				classes = RESOLVED.get(key);
+				if (classes == null) {
+					classes = new ConcurrentHashMap<String, WeakReference<Class<?>>>();
+					RESOLVED.put(key, classes);
+				}
+			}
+
+			Class<T> c = get(classes, className);
+			if (c == null) {
+				try {
+					c = (Class<T>) (loader == null ? Class.forName(className) : Class.forName(className, true, loader));
+				} catch (ClassNotFoundException e) {
+					Log.e(TAG, "Class not found when unmarshalling: " + className, e);
+					throw new BadParcelableException("ClassNotFoundException when unmarshalling: " + className);
+				}
+				classes.put(className, new WeakReference<Class<?>>(c));
+			}
+			return c;
+		}
+
+		private static <T extends Persistable> Persistable.Persister<T> getCreator(Class<T> c) {
+			final String className = c.getName();
 			try {
-				@SuppressWarnings("unchecked")
-				Class<T> c = (Class<T>) (loader == null ? Class.forName(className) : Class.forName(className, true, loader));
 				Field f = c.getField("CREATOR");
 
 				@SuppressWarnings("unchecked")
@@ -133,9 +252,6 @@ public interface Persistable extends
 			} catch (IllegalAccessException e) {
 				Log.e(TAG, "Illegal access when unmarshalling: " + className, e);
 				throw new BadParcelableException("IllegalAccessException when unmarshalling: " + className);
-			} catch (ClassNotFoundException e) {
-				Log.e(TAG, "Class not found when unmarshalling: " + className, e);
-				throw new BadParcelableException("ClassNotFoundException when unmarshalling: " + className);
 			} catch (ClassCastException e) {
 				throw new BadParcelableException("Persistable protocol requires a Persistable.Persister object called CREATOR on class " + className);
 			} catch (NoSuchFieldException e) {
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.content;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@link Persistable} whose serialization is generated by the
+ * annotation processor of the <code>processor</code> module. For a class
+ * <code>Stroke</code> the processor generates a <code>StrokePersister</code> in
+ * the same package, which reads and writes the {@link PersistableField}s of the
+ * class without reflection:
+ *
+ * <pre>
+ * &#64;PersistableClass
+ * public class Stroke implements Persistable {
+ * 	&#64;PersistableField
+ * 	int color;
+ * 	&#64;PersistableField
+ * 	float width;
+ *
+ * 	public int describeContents() {
+ * 		return 0;
+ * 	}
+ *
+ * 	public void writeToParcel(Parcel out, int flags) {
+ * 		StrokePersister.writeToParcel(this, out, flags);
+ * 	}
+ *
+ * 	public void writeToPersist(DataOutput output) throws IOException {
+ * 		StrokePersister.writeToPersist(this, output);
+ * 	}
+ *
+ * 	public static final Persistable.Persister&lt;Stroke&gt; CREATOR = StrokePersister.INSTANCE;
+ * }
+ * </pre>
+ *
+ * <p>
+ * The class needs a constructor without arguments that is not private. The
+ * processor also generates an index class with a <code>register()</code>
+ * method, which registers the persisters of all annotated classes with
+ * {@link Persistable.Helper#register(Class, Persistable.Persister)}. Its name
+ * is given by the processor option <code>persistableIndex</code> and defaults
+ * to <code>PersistableIndex</code> in the package of the first annotated
+ * class. Annotated classes that are looked up before it was called fall back
+ * to their <code>CREATOR</code> and {@link Persistable.Helper} logs a warning,
+ * so the annotation is retained at runtime.
+ * </p>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface PersistableClass {
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.content;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a field of a {@link PersistableClass} to be written and read by the
+ * generated persister. Fields are written in the order they are declared in,
+ * so reordering or adding fields changes the format.
+ *
+ * <p>
+ * Fields must not be private, static or final. Supported types are the
+ * primitive types, <code>String</code>, enums, other {@link Persistable}s with a
+ * <code>CREATOR</code> of type {@link Persistable.Persister} and arrays of
+ * <code>byte</code>, <code>int</code>, <code>long</code>, <code>float</code>
+ * and <code>double</code>. All but primitives may be <code>null</code>.
+ * Strings are persisted by {@link java.io.DataOutput#writeUTF(String)}, which
+ * limits them to 65535 bytes of modified UTF-8.
+ * </p>
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface PersistableField {
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.content;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+import android.os.BadParcelableException;
+
+/**
+ * Reads the {@link Persistable}s written by {@link PersistableOutputStream}.
+ * The {@link Persistable.Persister} of every class is looked up once, when its
+ * name is read.
+ */
+public class PersistableInputStream extends DataInputStream {
+
+	private final ClassLoader loader;
+
+	private final ArrayList<Persistable.Persister<?>> persisters = new ArrayList<Persistable.Persister<?>>();
+
+	/**
+	 * Create a stream and read its header, classes are loaded by the class
+	 * loader of this class.
+	 */
+	public PersistableInputStream(InputStream in) throws IOException {
+		this(in, null);
+	}
+
+	/**
+	 * Create a stream and read its header.
+	 *
+	 * @param loader
+	 *            the class loader to load the classes of the read objects by,
+	 *            or <code>null</code> for the loader of this class.
+	 */
+	public PersistableInputStream(InputStream in, ClassLoader loader) throws IOException {
+		super(in);
+		this.loader = loader;
+		final byte version = readByte();
+		if (version != PersistableOutputStream.VERSION) {
+			throw new IOException("Unsupported PersistableInputStream version " + version);
+		}
+	}
+
+	/**
+	 * Read the next object written by
+	 * {@link PersistableOutputStream#writePersistable(Persistable)}.
+	 *
+	 * @return the object, or <code>null</code> if <code>null</code> was
+	 *         written.
+	 * @throws EOFException
+	 *             if the stream ends before the object.
+	 */
+	public Persistable readPersistable() throws IOException {
+		final int id = readVarint();
+		if (id == 0) {
+			return null;
+		}
+
+		final Persistable.Persister<?> persister;
+		if (id > 0 && id <= persisters.size()) {
+			persister = persisters.get(id - 1);
+		} else if (id == persisters.size() + 1) {
+			final String className = readUTF();
+			try {
+				persister = Persistable.Helper.getPersistablePersister(className, loader);
+			} catch (BadParcelableException e) {
+				throw new IOException(e.getMessage());
+			}
+			persisters.add(persister);
+		} else {
+			throw new IOException("Malformed PersistableInputStream, unknown class id " + id);
+		}
+		return (Persistable) persister.createFromPersist(this);
+	}
+
+	/**
+	 * Read the next object, which has to be an instance of the given type.
+	 *
+	 * @see #readPersistable()
+	 */
+	public <T extends Persistable> T readPersistable(Class<T> type) throws IOException {
+		final Persistable object = readPersistable();
+		if (object != null && !type.isInstance(object)) {
+			throw new IOException("Expected " + type.getName() + ", read " + object.getClass().getName());
+		}
+		return type.cast(object);
+	}
+
+	private int readVarint() throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			final int b = readUnsignedByte();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed PersistableInputStream, class id too long");
+	}
+}
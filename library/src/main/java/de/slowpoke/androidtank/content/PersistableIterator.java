@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.content;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a stream of records written one after another by
+ * {@link Persistable#writeToPersist(java.io.DataOutput)}, one record at a time
+ * as the iteration proceeds. Only the current record is held in memory, so
+ * files larger than the heap can be filtered:
+ *
+ * <pre>
+ * PersistableIterator&lt;Record&gt; records = new PersistableIterator&lt;Record&gt;(new FileInputStream(file),
+ * 		Record.CREATOR);
+ * try {
+ * 	while (records.hasNext()) {
+ * 		Record record = records.next();
+ * 		...
+ * 	}
+ * } finally {
+ * 	records.close();
+ * }
+ * </pre>
+ *
+ * <p>
+ * The stream is closed once its end is reached. Read errors are thrown as
+ * {@link ReadException}s by {@link #hasNext()} and {@link #next()}.
+ * </p>
+ */
+public class PersistableIterator<T> implements Iterator<T>, Closeable {
+
+	/**
+	 * Thrown by the iterator methods if the stream can't be read or holds a
+	 * truncated record.
+	 */
+	public static class ReadException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		public ReadException(IOException cause) {
+			super(cause.getMessage(), cause);
+		}
+
+		@Override
+		public IOException getCause() {
+			return (IOException) super.getCause();
+		}
+	}
+
+	private final DataInputStream in;
+	private final Persistable.Persister<T> persister;
+
+	private T next;
+	private boolean done;
+
+	/**
+	 * @param in
+	 *            the stream to read from, it is buffered unless it supports
+	 *            {@link InputStream#mark(int)}.
+	 * @param persister
+	 *            creates the records, e.g. the <code>CREATOR</code> of their
+	 *            class.
+	 */
+	public PersistableIterator(InputStream in, Persistable.Persister<T> persister) {
+		if (persister == null) {
+			throw new NullPointerException("persister");
+		}
+		this.in = new DataInputStream(in.markSupported() ? in : new BufferedInputStream(in));
+		this.persister = persister;
+	}
+
+	/**
+	 * Read records of the given class, its {@link Persistable.Persister} is
+	 * looked up by {@link Persistable.Helper}.
+	 */
+	public static <T extends Persistable> PersistableIterator<T> of(InputStream in, Class<T> clazz) {
+		return new PersistableIterator<T>(in, Persistable.Helper.getPersistablePersister(clazz));
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next != null) {
+			return true;
+		}
+		if (done) {
+			return false;
+		}
+		try {
+			// the end of the stream can only be detected between records
+			in.mark(1);
+			if (in.read() < 0) {
+				close();
+				return false;
+			}
+			in.reset();
+			next = persister.createFromPersist(in);
+			if (next == null) {
+				throw new IOException("Persister returned null");
+			}
+			return true;
+		} catch (IOException e) {
+			done = true;
+			throw new ReadException(e);
+		}
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		final T result = next;
+		next = null;
+		return result;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Records can't be removed from a stream");
+	}
+
+	/**
+	 * Close the stream, the iteration ends after the record read by
+	 * {@link #hasNext()}, if any.
+	 */
+	@Override
+	public void close() throws IOException {
+		done = true;
+		in.close();
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.content;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+
+/**
+ * Writes a sequence of {@link Persistable}s of mixed classes, to be read by
+ * {@link PersistableInputStream}. The name of a class is written once, with
+ * its first instance. All later instances of the class are preceded by a
+ * small class id only.
+ *
+ * <p>
+ * Every record starts with a varint: <code>0</code> for <code>null</code>, the
+ * id of a known class, or the next unused id followed by the class name as
+ * written by {@link #writeUTF(String)}. The record itself is written by
+ * {@link Persistable#writeToPersist(java.io.DataOutput)}, so other data can be
+ * interleaved with the records.
+ * </p>
+ */
+public class PersistableOutputStream extends DataOutputStream {
+
+	/**
+	 * Version of the stream layout, written at the start of the stream.
+	 */
+	static final byte VERSION = 1;
+
+	private final HashMap<Class<?>, Integer> ids = new HashMap<Class<?>, Integer>();
+
+	/**
+	 * Create a stream and write its header.
+	 */
+	public PersistableOutputStream(OutputStream out) throws IOException {
+		super(out);
+		writeByte(VERSION);
+	}
+
+	/**
+	 * Write the class of the object, unless it was written before, and the
+	 * object itself.
+	 *
+	 * @param object
+	 *            the object to write, may be <code>null</code>.
+	 */
+	public void writePersistable(Persistable object) throws IOException {
+		if (object == null) {
+			writeVarint(0);
+			return;
+		}
+		final Class<?> clazz = object.getClass();
+		final Integer id = ids.get(clazz);
+		if (id != null) {
+			writeVarint(id);
+		} else {
+			final int next = ids.size() + 1;
+			ids.put(clazz, next);
+			writeVarint(next);
+			writeUTF(clazz.getName());
+		}
+		object.writeToPersist(this);
+	}
+
+	private void writeVarint(int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		write(value);
+	}
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.graphics;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A single file holding many {@link PathParcelable}s. The file is memory
+ * mapped when opened and only the index is consulted up front, a path is
+ * decoded from the mapping when it is requested through {@link #get(int)}.
+ *
+ * <p>
+ * The file starts with a header of a magic number and a version, followed by
+ * the paths in the format of {@link PathParcelable#writeToPersist(java.io.DataOutput)}.
+ * The paths are followed by the index, one <code>long</code> offset per path,
+ * and a trailer holding the offset of the index, the number of paths and the
+ * magic number again. Archives are limited to 2 GB.
+ * </p>
+ *
+ * <pre>
+ * PathArchive.Writer writer = new PathArchive.Writer(file);
+ * try {
+ * 	for (PathParcelable path : paths) {
+ * 		writer.add(path);
+ * 	}
+ * } finally {
+ * 	writer.close();
+ * }
+ *
+ * PathArchive archive = PathArchive.open(file);
+ * PathParcelable shape = archive.get(42);
+ * </pre>
+ */
+public final class PathArchive implements Closeable {
+
+	private static final int MAGIC = 0x50415448; // "PATH"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	private static final int TRAILER_SIZE = 16;
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer mapping;
+	private final int indexOffset;
+	private final int size;
+
+	private PathArchive(RandomAccessFile file, MappedByteBuffer mapping, int indexOffset, int size) {
+		this.file = file;
+		this.mapping = mapping;
+		this.indexOffset = indexOffset;
+		this.size = size;
+	}
+
+	/**
+	 * Open an archive written by {@link Writer}.
+	 *
+	 * @throws IOException
+	 *             if the file is not a valid archive.
+	 */
+	public static PathArchive open(File archive) throws IOException {
+		final RandomAccessFile file = new RandomAccessFile(archive, "r");
+		try {
+			final FileChannel channel = file.getChannel();
+			final long length = channel.size();
+			if (length < HEADER_SIZE + TRAILER_SIZE || length > Integer.MAX_VALUE) {
+				throw new IOException("Not a path archive: " + archive);
+			}
+
+			final MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			mapping.order(ByteOrder.BIG_ENDIAN);
+
+			final int trailer = (int) length - TRAILER_SIZE;
+			if (mapping.getInt(0) != MAGIC || mapping.getInt(trailer + 12) != MAGIC) {
+				throw new IOException("Not a path archive: " + archive);
+			}
+			if (mapping.getInt(4) != VERSION) {
+				throw new IOException("Unsupported path archive version " + mapping.getInt(4));
+			}
+
+			final long indexOffset = mapping.getLong(trailer);
+			final int size = mapping.getInt(trailer + 8);
+			if (size < 0 || indexOffset < HEADER_SIZE || indexOffset + size * 8L != trailer) {
+				throw new IOException("Corrupt path archive index: " + archive);
+			}
+			return new PathArchive(file, mapping, (int) indexOffset, size);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the number of paths in this archive.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Decode a single path. Only the bytes of the requested path are read from
+	 * the mapped file.
+	 *
+	 * @param index
+	 *            the index returned by {@link Writer#add(PathParcelable)}.
+	 */
+	public PathParcelable get(int index) throws IOException {
+		return get(index, false);
+	}
+
+	/**
+	 * Decode a single path, optionally without building its native path, see
+	 * {@link PathParcelable#DEFERRED_CREATOR}.
+	 *
+	 * @param index
+	 *            the index returned by {@link Writer#add(PathParcelable)}.
+	 */
+	public PathParcelable get(int index, boolean deferred) throws IOException {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+		}
+
+		final long offset = mapping.getLong(indexOffset + index * 8);
+		if (offset < HEADER_SIZE || offset >= indexOffset) {
+			throw new IOException("Corrupt path archive offset " + offset);
+		}
+
+		final ByteBuffer record = mapping.duplicate();
+		record.order(ByteOrder.BIG_ENDIAN);
+		record.limit(indexOffset);
+		record.position((int) offset);
+		return new PathParcelable(record, deferred);
+	}
+
+	/**
+	 * Close the underlying file. The mapping itself is released once it is
+	 * garbage collected.
+	 */
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * Writes an archive that can be read by {@link PathArchive#open(File)}.
+	 * Paths are streamed to the file as they are added, the index is written
+	 * when the writer is closed.
+	 */
+	public static final class Writer implements Closeable {
+
+		private final CountingOutputStream counter;
+		private final DataOutputStream out;
+		private long[] offsets = new long[64];
+		private int size;
+
+		public Writer(File archive) throws IOException {
+			this(new FileOutputStream(archive));
+		}
+
+		public Writer(OutputStream out) throws IOException {
+			// DataOutputStream.size() stops counting at Integer.MAX_VALUE
+			this.counter = new CountingOutputStream(new BufferedOutputStream(out, 64 * 1024));
+			this.out = new DataOutputStream(counter);
+			this.out.writeInt(MAGIC);
+			this.out.writeInt(VERSION);
+		}
+
+		/**
+		 * Append a path to the archive.
+		 *
+		 * @return the index of the path within the archive.
+		 * @throws IOException
+		 *             if the archive grows beyond 2 GB with this path, it
+		 *             can't be completed then.
+		 */
+		public int add(PathParcelable path) throws IOException {
+			if (size == offsets.length) {
+				final long[] grown = new long[size * 2];
+				System.arraycopy(offsets, 0, grown, 0, size);
+				offsets = grown;
+			}
+			offsets[size] = counter.count;
+
+			path.writeToPersist(out);
+			if (counter.count + (size + 1) * 8L + TRAILER_SIZE > Integer.MAX_VALUE) {
+				throw new IOException("Path archive exceeds 2 GB");
+			}
+			return size++;
+		}
+
+		/**
+		 * Write the index and close the underlying stream.
+		 */
+		@Override
+		public void close() throws IOException {
+			try {
+				final long indexOffset = counter.count;
+				for (int i = 0; i < size; i++) {
+					out.writeLong(offsets[i]);
+				}
+				out.writeLong(indexOffset);
+				out.writeInt(size);
+				out.writeInt(MAGIC);
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Counts the bytes written through it as a <code>long</code>.
+	 */
+	private static final class CountingOutputStream extends FilterOutputStream {
+
+		long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.graphics;
+
+import android.graphics.RectF;
+
+/**
+ * Running bounds of the calls recorded in a {@link PathBuffer}, computed from
+ * the recorded arguments alone. Curves are bounded by their control points,
+ * like the native path does, arcs by their ovals. The bounds are extended by
+ * the calls appended since the last update, they are only computed from
+ * scratch after the buffer was changed otherwise.
+ */
+final class PathBounds {
+
+	private float left, top, right, bottom;
+	private boolean empty;
+
+	/**
+	 * Cleared once a call is recorded whose bounds can't be derived from its
+	 * arguments, e.g. a perspective transformation.
+	 */
+	private boolean valid;
+
+	private float x, y;
+	private float startX, startY;
+	private boolean contour;
+
+	/**
+	 * Cleared after shapes whose last point depends on the native
+	 * implementation, relative calls can't be bounded after them.
+	 */
+	private boolean pointKnown;
+
+	private int revision = -1;
+	private int verbs;
+	private int coords;
+
+	/**
+	 * Extend the bounds by the calls appended to the buffer since the last
+	 * update.
+	 *
+	 * @return <code>false</code> if the bounds can't be computed from the
+	 *         recorded calls.
+	 */
+	boolean update(PathBuffer buffer) {
+		if (buffer.revision != revision || buffer.verbCount < verbs) {
+			reset(buffer.revision);
+		}
+		if (!valid) {
+			return false;
+		}
+
+		final byte[] v = buffer.verbs;
+		final float[] c = buffer.coords;
+		int at = coords;
+		for (int i = verbs; i < buffer.verbCount && valid; i++) {
+			final byte verb = v[i];
+			switch (verb) {
+			case PathBuffer.MOVE_TO:
+				moveTo(c[at], c[at + 1]);
+				break;
+
+			case PathBuffer.R_MOVE_TO:
+				if (pointKnown) {
+					moveTo(x + c[at], y + c[at + 1]);
+				} else {
+					valid = false;
+				}
+				break;
+
+			case PathBuffer.LINE_TO:
+			case PathBuffer.QUAD_TO:
+			case PathBuffer.CUBIC_TO:
+				startContour();
+				for (int pair = 0, count = PathBuffer.pairs(verb); pair < count; pair++) {
+					include(c[at + pair * 2], c[at + pair * 2 + 1]);
+				}
+				x = c[at + PathBuffer.arguments(verb) - 2];
+				y = c[at + PathBuffer.arguments(verb) - 1];
+				pointKnown = true;
+				break;
+
+			case PathBuffer.R_LINE_TO:
+			case PathBuffer.R_QUAD_TO:
+			case PathBuffer.R_CUBIC_TO:
+				if (!pointKnown) {
+					valid = false;
+					break;
+				}
+				startContour();
+				// all control points are relative to the current point
+				for (int pair = 0, count = PathBuffer.pairs(verb); pair < count; pair++) {
+					include(x + c[at + pair * 2], y + c[at + pair * 2 + 1]);
+				}
+				x += c[at + PathBuffer.arguments(verb) - 2];
+				y += c[at + PathBuffer.arguments(verb) - 1];
+				break;
+
+			case PathBuffer.ADD_ARC:
+				if (Math.abs(c[at + 5]) >= 360) {
+					// a full arc is added as an oval
+					shape(c[at], c[at + 1], c[at + 2], c[at + 3]);
+				} else {
+					arc(c[at], c[at + 1], c[at + 2], c[at + 3], c[at + 4], c[at + 5], true);
+				}
+				break;
+
+			case PathBuffer.ARC_TO:
+				arc(c[at], c[at + 1], c[at + 2], c[at + 3], c[at + 4], c[at + 5], c[at + 6] != 0);
+				break;
+
+			case PathBuffer.ADD_CIRCLE:
+				shape(c[at] - c[at + 2], c[at + 1] - c[at + 2], c[at] + c[at + 2], c[at + 1] + c[at + 2]);
+				break;
+
+			case PathBuffer.ADD_RECT:
+				shape(c[at], c[at + 1], c[at + 2], c[at + 3]);
+				// a rectangle starts at its top left corner in both directions
+				x = startX = c[at];
+				y = startY = c[at + 1];
+				pointKnown = true;
+				break;
+
+			case PathBuffer.ADD_OVAL:
+			case PathBuffer.ADD_ROUNDED_RECT:
+			case PathBuffer.ADD_ROUNDED_RECT_CORNERS:
+				shape(c[at], c[at + 1], c[at + 2], c[at + 3]);
+				break;
+
+			case PathBuffer.OFFSET:
+				offset(c[at], c[at + 1]);
+				break;
+
+			case PathBuffer.MATRIX_TRANSFORMATION:
+				transform(c, at);
+				break;
+
+			case PathBuffer.CLOSE:
+				contour = false;
+				x = startX;
+				y = startY;
+				break;
+
+			case PathBuffer.LAST_POINT:
+				if (!contour) {
+					moveTo(c[at], c[at + 1]);
+				} else {
+					include(c[at], c[at + 1]);
+					x = c[at];
+					y = c[at + 1];
+					pointKnown = true;
+				}
+				break;
+			}
+			at += PathBuffer.arguments(verb);
+		}
+		verbs = buffer.verbCount;
+		coords = buffer.coordCount;
+		return valid;
+	}
+
+	/**
+	 * Copy the bounds, an empty path has empty bounds at the origin.
+	 */
+	void get(RectF bounds) {
+		if (empty) {
+			bounds.set(0, 0, 0, 0);
+		} else {
+			bounds.set(left, top, right, bottom);
+		}
+	}
+
+	/**
+	 * Write left, top, right and bottom to <code>dst</code>, starting at
+	 * <code>offset</code>.
+	 */
+	void get(float[] dst, int offset) {
+		if (empty) {
+			dst[offset] = dst[offset + 1] = dst[offset + 2] = dst[offset + 3] = 0;
+		} else {
+			dst[offset] = left;
+			dst[offset + 1] = top;
+			dst[offset + 2] = right;
+			dst[offset + 3] = bottom;
+		}
+	}
+
+	/**
+	 * @return whether the point is within <code>radius</code> of the bounds.
+	 */
+	boolean contains(float px, float py, float radius) {
+		return !empty && px >= left - radius && px <= right + radius && py >= top - radius
+				&& py <= bottom + radius;
+	}
+
+	private void reset(int revision) {
+		this.revision = revision;
+		verbs = 0;
+		coords = 0;
+		empty = true;
+		valid = true;
+		x = y = startX = startY = 0;
+		contour = false;
+		pointKnown = true;
+	}
+
+	private void include(float px, float py) {
+		if (empty) {
+			left = right = px;
+			top = bottom = py;
+			empty = false;
+		} else {
+			left = Math.min(left, px);
+			top = Math.min(top, py);
+			right = Math.max(right, px);
+			bottom = Math.max(bottom, py);
+		}
+	}
+
+	private void moveTo(float px, float py) {
+		include(px, py);
+		x = startX = px;
+		y = startY = py;
+		contour = true;
+		pointKnown = true;
+	}
+
+	/**
+	 * Drawing without a preceding move starts at the current point.
+	 */
+	private void startContour() {
+		if (!contour) {
+			include(x, y);
+			startX = x;
+			startY = y;
+			contour = true;
+		}
+	}
+
+	private void arc(float l, float t, float r, float b, float startAngle, float sweepAngle, boolean forceMoveTo) {
+		final float cx = (l + r) / 2, cy = (t + b) / 2;
+		final float rx = (r - l) / 2, ry = (b - t) / 2;
+		final double start = Math.toRadians(startAngle);
+		final double end = Math.toRadians(startAngle + sweepAngle);
+		final float arcX = (float) (cx + rx * Math.cos(start));
+		final float arcY = (float) (cy + ry * Math.sin(start));
+		if (forceMoveTo || !contour) {
+			moveTo(arcX, arcY);
+		}
+		include(l, t);
+		include(r, b);
+		x = (float) (cx + rx * Math.cos(end));
+		y = (float) (cy + ry * Math.sin(end));
+		pointKnown = true;
+	}
+
+	private void shape(float l, float t, float r, float b) {
+		include(l, t);
+		include(r, b);
+		contour = false;
+		pointKnown = false;
+	}
+
+	private void offset(float dx, float dy) {
+		left += dx;
+		right += dx;
+		top += dy;
+		bottom += dy;
+		x += dx;
+		y += dy;
+		startX += dx;
+		startY += dy;
+	}
+
+	private void transform(float[] m, int at) {
+		if (m[at + 6] != 0 || m[at + 7] != 0 || m[at + 8] != 1) {
+			valid = false;
+			return;
+		}
+		final float m0 = m[at], m1 = m[at + 1], m2 = m[at + 2];
+		final float m3 = m[at + 3], m4 = m[at + 4], m5 = m[at + 5];
+
+		final float px = x, py = y;
+		x = m0 * px + m1 * py + m2;
+		y = m3 * px + m4 * py + m5;
+		final float sx = startX, sy = startY;
+		startX = m0 * sx + m1 * sy + m2;
+		startY = m3 * sx + m4 * sy + m5;
+
+		if (!empty) {
+			// the mapped corners bound the mapped points
+			final float l = left, t = top, r = right, b = bottom;
+			empty = true;
+			include(m0 * l + m1 * t + m2, m3 * l + m4 * t + m5);
+			include(m0 * r + m1 * t + m2, m3 * r + m4 * t + m5);
+			include(m0 * r + m1 * b + m2, m3 * r + m4 * b + m5);
+			include(m0 * l + m1 * b + m2, m3 * l + m4 * b + m5);
+		}
+	}
+}
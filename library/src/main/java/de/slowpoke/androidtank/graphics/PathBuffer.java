@@ -0,0 +1,802 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.graphics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import android.graphics.Path.Direction;
+
+/**
+ * Packed storage of the calls recorded by a {@link PathParcelable}. Every call
+ * is stored as a single verb byte, its arguments are appended to one growable
+ * float array. Directions are stored as their ordinal and booleans as
+ * <code>0</code> or <code>1</code>, so no objects are created per segment.
+ */
+final class PathBuffer {
+
+	static final byte LINE_TO = 0;
+	static final byte MOVE_TO = 1;
+	static final byte CUBIC_TO = 2;
+	static final byte ARC_TO = 3;
+	static final byte QUAD_TO = 4;
+	static final byte R_CUBIC_TO = 5;
+	static final byte R_QUAD_TO = 6;
+	static final byte R_LINE_TO = 7;
+	static final byte R_MOVE_TO = 8;
+	static final byte ADD_ARC = 9;
+	static final byte ADD_CIRCLE = 10;
+	static final byte ADD_OVAL = 11;
+	static final byte ADD_RECT = 12;
+	static final byte ADD_ROUNDED_RECT = 13;
+	static final byte ADD_ROUNDED_RECT_CORNERS = 14;
+	static final byte OFFSET = 15;
+	static final byte MATRIX_TRANSFORMATION = 16;
+	static final byte CLOSE = 17;
+	static final byte LAST_POINT = 18;
+
+	/**
+	 * Number of floats each verb consumes, indexed by verb.
+	 */
+	private static final int[] ARGUMENTS = {
+			2, // LINE_TO: x, y
+			2, // MOVE_TO: x, y
+			6, // CUBIC_TO: x1, y1, x2, y2, x3, y3
+			7, // ARC_TO: left, top, right, bottom, startAngle, sweepAngle, forceMoveTo
+			4, // QUAD_TO: x1, y1, x2, y2
+			6, // R_CUBIC_TO: x1, y1, x2, y2, x3, y3
+			4, // R_QUAD_TO: x1, y1, x2, y2
+			2, // R_LINE_TO: dx, dy
+			2, // R_MOVE_TO: dx, dy
+			6, // ADD_ARC: left, top, right, bottom, startAngle, sweepAngle
+			4, // ADD_CIRCLE: x, y, radius, dir
+			5, // ADD_OVAL: left, top, right, bottom, dir
+			5, // ADD_RECT: left, top, right, bottom, dir
+			7, // ADD_ROUNDED_RECT: left, top, right, bottom, rx, ry, dir
+			13, // ADD_ROUNDED_RECT_CORNERS: left, top, right, bottom, radii[8], dir
+			2, // OFFSET: dx, dy
+			9, // MATRIX_TRANSFORMATION: matrix values
+			0, // CLOSE
+			2 // LAST_POINT: x, y
+	};
+
+	/**
+	 * Number of leading coordinate pairs of each verb, indexed by verb. The
+	 * remaining arguments of a verb are not coordinates, like angles, radii,
+	 * directions or flags.
+	 */
+	private static final int[] PAIRS = {
+			1, // LINE_TO
+			1, // MOVE_TO
+			3, // CUBIC_TO
+			2, // ARC_TO
+			2, // QUAD_TO
+			3, // R_CUBIC_TO
+			2, // R_QUAD_TO
+			1, // R_LINE_TO
+			1, // R_MOVE_TO
+			2, // ADD_ARC
+			1, // ADD_CIRCLE
+			2, // ADD_OVAL
+			2, // ADD_RECT
+			2, // ADD_ROUNDED_RECT
+			2, // ADD_ROUNDED_RECT_CORNERS
+			1, // OFFSET
+			0, // MATRIX_TRANSFORMATION
+			0, // CLOSE
+			1 // LAST_POINT
+	};
+
+	/**
+	 * Whether the coordinate pairs of a verb are offsets relative to the
+	 * current point instead of absolute points.
+	 */
+	private static final boolean[] RELATIVE = {
+			false, // LINE_TO
+			false, // MOVE_TO
+			false, // CUBIC_TO
+			false, // ARC_TO
+			false, // QUAD_TO
+			true, // R_CUBIC_TO
+			true, // R_QUAD_TO
+			true, // R_LINE_TO
+			true, // R_MOVE_TO
+			false, // ADD_ARC
+			false, // ADD_CIRCLE
+			false, // ADD_OVAL
+			false, // ADD_RECT
+			false, // ADD_ROUNDED_RECT
+			false, // ADD_ROUNDED_RECT_CORNERS
+			true, // OFFSET
+			false, // MATRIX_TRANSFORMATION
+			false, // CLOSE
+			false // LAST_POINT
+	};
+
+	private static final Direction[] DIRECTIONS = Direction.values();
+
+	/**
+	 * Size of the scratch array used to move floats from and to a
+	 * {@link DataOutput} or {@link DataInput} in bulk.
+	 */
+	private static final int CHUNK_SIZE = 8192;
+
+	/**
+	 * Upper bound of the bytes of verbs and arguments accepted by
+	 * {@link #readFrom(DataInput)}.
+	 */
+	private static final long MAX_READ_LENGTH = 1 << 28;
+
+	/**
+	 * The arrays may be shared with snapshots of this buffer, see
+	 * {@link #snapshot()}. They must only be written through the append
+	 * methods, which copy them first unless this buffer owns their end.
+	 */
+	byte[] verbs;
+	float[] coords;
+	int verbCount;
+	int coordCount;
+
+	/**
+	 * How far {@link #verbs} and {@link #coords} are in use by any of the
+	 * buffers sharing them. Only the buffer whose counts match the frontier
+	 * may append in place, all others copy their prefix first.
+	 */
+	private static final class Frontier {
+		int verbs;
+		int coords;
+		boolean shared;
+
+		Frontier(int verbs, int coords) {
+			this.verbs = verbs;
+			this.coords = coords;
+		}
+	}
+
+	private Frontier frontier;
+
+	/**
+	 * Incremented whenever the recorded calls are changed other than by
+	 * appending. Together with {@link #verbCount} it identifies the state of
+	 * the buffer for data derived from it.
+	 */
+	int revision;
+
+	/**
+	 * Hash of the verbs and arguments up to {@link #hashedVerbs} and
+	 * {@link #hashedCoords}. Appending only extends the hash, so
+	 * {@link #hashCode()} costs are proportional to the data appended since
+	 * the last call.
+	 */
+	private int verbHash = 1;
+	private int coordHash = 1;
+	private int hashedVerbs;
+	private int hashedCoords;
+
+	PathBuffer(int capacity) {
+		capacity = Math.max(capacity, 1);
+		verbs = new byte[capacity];
+		coords = new float[capacity * 2];
+		frontier = new Frontier(0, 0);
+	}
+
+	/**
+	 * Wrap already packed verbs and arguments without copying them.
+	 */
+	PathBuffer(byte[] verbs, float[] coords) {
+		this.verbs = verbs;
+		this.coords = coords;
+		this.verbCount = verbs.length;
+		this.coordCount = coords.length;
+		this.frontier = new Frontier(verbCount, coordCount);
+	}
+
+	/**
+	 * Create a buffer that shares the recorded calls of this one. Neither
+	 * buffer copies anything until it is changed other than by appending, or
+	 * until both append to the shared prefix, in which case the second one
+	 * copies its prefix.
+	 */
+	PathBuffer snapshot() {
+		final PathBuffer copy = new PathBuffer(0);
+		copy.set(this);
+		return copy;
+	}
+
+	/**
+	 * Replace the recorded calls of this buffer by those of the given one,
+	 * sharing its storage.
+	 */
+	void set(PathBuffer src) {
+		if (src == this) {
+			return;
+		}
+		src.frontier.shared = true;
+		verbs = src.verbs;
+		coords = src.coords;
+		verbCount = src.verbCount;
+		coordCount = src.coordCount;
+		frontier = src.frontier;
+		revision++;
+		verbHash = src.verbHash;
+		coordHash = src.coordHash;
+		hashedVerbs = src.hashedVerbs;
+		hashedCoords = src.hashedCoords;
+	}
+
+	/**
+	 * @return the number of floats consumed by the given verb, or
+	 *         <code>-1</code> for an unknown verb.
+	 */
+	static int arguments(byte verb) {
+		return verb >= 0 && verb < ARGUMENTS.length ? ARGUMENTS[verb] : -1;
+	}
+
+	/**
+	 * @return the number of leading coordinate pairs of the given verb.
+	 */
+	static int pairs(byte verb) {
+		return PAIRS[verb];
+	}
+
+	/**
+	 * @return whether the coordinate pairs of the given verb are relative.
+	 */
+	static boolean isRelative(byte verb) {
+		return RELATIVE[verb];
+	}
+
+	static float encode(Direction dir) {
+		return dir.ordinal();
+	}
+
+	static Direction direction(float value) {
+		return DIRECTIONS[(int) value];
+	}
+
+	/**
+	 * Check the arguments of a verb that are not covered by their count, the
+	 * direction of shapes has to be one of the encoded directions.
+	 *
+	 * @return whether the verb can be replayed with its arguments starting at
+	 *         <code>c[at]</code>.
+	 */
+	static boolean hasValidArguments(byte verb, float[] c, int at) {
+		switch (verb) {
+		case ADD_CIRCLE:
+		case ADD_OVAL:
+		case ADD_RECT:
+		case ADD_ROUNDED_RECT:
+		case ADD_ROUNDED_RECT_CORNERS:
+			// the direction is the last argument
+			final float direction = c[at + ARGUMENTS[verb] - 1];
+			return direction >= 0 && direction < DIRECTIONS.length && direction == (int) direction;
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Append a verb and reserve room for its arguments.
+	 *
+	 * @return the index in {@link #coords} at which the arguments of the verb
+	 *         have to be written.
+	 */
+	int append(byte verb) {
+		final int count = ARGUMENTS[verb];
+		ensureCapacity(1, count);
+		final int at = coordCount;
+		verbs[verbCount] = verb;
+		advance(1, count);
+		return at;
+	}
+
+	void append(byte verb, float x, float y) {
+		final int at = append(verb);
+		coords[at] = x;
+		coords[at + 1] = y;
+	}
+
+	void append(byte verb, float x1, float y1, float x2, float y2) {
+		final int at = append(verb);
+		coords[at] = x1;
+		coords[at + 1] = y1;
+		coords[at + 2] = x2;
+		coords[at + 3] = y2;
+	}
+
+	void append(byte verb, float x1, float y1, float x2, float y2, float x3, float y3) {
+		final int at = append(verb);
+		coords[at] = x1;
+		coords[at + 1] = y1;
+		coords[at + 2] = x2;
+		coords[at + 3] = y2;
+		coords[at + 4] = x3;
+		coords[at + 5] = y3;
+	}
+
+	/**
+	 * Append already packed verbs and their arguments.
+	 */
+	void append(byte[] verbs, int verbCount, float[] coords, int coordCount) {
+		ensureCapacity(verbCount, coordCount);
+		System.arraycopy(verbs, 0, this.verbs, this.verbCount, verbCount);
+		System.arraycopy(coords, 0, this.coords, this.coordCount, coordCount);
+		advance(verbCount, coordCount);
+	}
+
+	/**
+	 * @return whether the calls recorded in this buffer only affect the
+	 *         points recorded by itself, so they can be appended to another
+	 *         buffer. Offsets and transformations apply to all points of a
+	 *         path and are therefore not relocatable.
+	 */
+	boolean isRelocatable() {
+		for (int i = 0; i < verbCount; i++) {
+			final byte verb = verbs[i];
+			if (verb == OFFSET || verb == MATRIX_TRANSFORMATION) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return whether the recorded calls can be mapped by an arbitrary affine
+	 *         matrix, i.e. they only consist of points, curves and lines.
+	 */
+	boolean isAffinelyMappable() {
+		for (int i = 0; i < verbCount; i++) {
+			switch (verbs[i]) {
+			case ARC_TO:
+			case ADD_ARC:
+			case ADD_CIRCLE:
+			case ADD_OVAL:
+			case ADD_RECT:
+			case ADD_ROUNDED_RECT:
+			case ADD_ROUNDED_RECT_CORNERS:
+			case OFFSET:
+			case MATRIX_TRANSFORMATION:
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Append the calls of a relocatable buffer, optionally mapped by an affine
+	 * matrix, as {@link android.graphics.Path#addPath(android.graphics.Path)}
+	 * would. A path that does not start a contour of its own is started
+	 * with a move to the origin, as it would be when replayed on an empty path.
+	 * 
+	 * @param m
+	 *            the values of the matrix, or <code>null</code> to append the
+	 *            calls unchanged. Only translations are allowed unless the
+	 *            source is {@link #isAffinelyMappable()}.
+	 */
+	void append(PathBuffer src, float[] m) {
+		final int srcVerbs = src.verbCount;
+		final int srcCoords = src.coordCount;
+		if (srcVerbs == 0) {
+			return;
+		}
+		final byte[] fromVerbs = src.verbs;
+		final float[] fromCoords = src.coords;
+		ensureCapacity(srcVerbs + 1, srcCoords + 2);
+
+		final byte first = fromVerbs[0];
+		switch (first) {
+		case MOVE_TO:
+		case ARC_TO:
+		case ADD_ARC:
+		case ADD_CIRCLE:
+		case ADD_OVAL:
+		case ADD_RECT:
+		case ADD_ROUNDED_RECT:
+		case ADD_ROUNDED_RECT_CORNERS:
+			break;
+		default:
+			append(MOVE_TO, 0, 0);
+			if (m != null) {
+				coords[coordCount - 2] = m[2];
+				coords[coordCount - 1] = m[5];
+			}
+			break;
+		}
+
+		final int startVerb = verbCount;
+		final int startCoord = coordCount;
+		System.arraycopy(fromVerbs, 0, verbs, startVerb, srcVerbs);
+		System.arraycopy(fromCoords, 0, coords, startCoord, srcCoords);
+		advance(srcVerbs, srcCoords);
+
+		if (first == ARC_TO) {
+			// on an empty path an arc always starts a new contour
+			coords[startCoord + 6] = 1;
+		}
+
+		if (m != null) {
+			final float[] c = coords;
+			for (int i = startVerb, at = startCoord; i < verbCount; i++) {
+				final byte verb = verbs[i];
+				final int end = at + ARGUMENTS[verb];
+				final boolean relative = RELATIVE[verb];
+				for (int pair = PAIRS[verb]; pair > 0; pair--, at += 2) {
+					final float x = c[at];
+					final float y = c[at + 1];
+					c[at] = m[0] * x + m[1] * y + (relative ? 0 : m[2]);
+					c[at + 1] = m[3] * x + m[4] * y + (relative ? 0 : m[5]);
+				}
+				at = end;
+			}
+		}
+	}
+
+	/**
+	 * Make sure the given number of verbs and arguments can be appended in
+	 * place. Storage shared with other buffers is copied unless this buffer
+	 * owns its end, storage owned by this buffer is grown as needed.
+	 */
+	void ensureCapacity(int extraVerbs, int extraCoords) {
+		if (frontier.verbs != verbCount || frontier.coords != coordCount) {
+			// somebody else appended to the shared storage, or this buffer
+			// was cleared after it was shared: copy the own prefix
+			verbs = Arrays.copyOf(verbs, Math.max(verbCount + extraVerbs, verbCount * 2));
+			coords = Arrays.copyOf(coords, Math.max(coordCount + extraCoords, coordCount * 2));
+			frontier = new Frontier(verbCount, coordCount);
+			return;
+		}
+
+		boolean grown = false;
+		if (verbCount + extraVerbs > verbs.length) {
+			verbs = Arrays.copyOf(verbs, Math.max(verbCount + extraVerbs, verbs.length * 2));
+			grown = true;
+		}
+		if (coordCount + extraCoords > coords.length) {
+			coords = Arrays.copyOf(coords, Math.max(coordCount + extraCoords, coords.length * 2));
+			grown = true;
+		}
+		if (grown && frontier.shared) {
+			// the grown arrays are private, the old ones stay with the others
+			frontier = new Frontier(verbCount, coordCount);
+		}
+	}
+
+	/**
+	 * Make sure the storage is not shared, so it can be changed in place.
+	 */
+	private void detach() {
+		if (frontier.shared) {
+			verbs = Arrays.copyOf(verbs, Math.max(verbCount, 1));
+			coords = Arrays.copyOf(coords, Math.max(coordCount, 2));
+			frontier = new Frontier(verbCount, coordCount);
+		}
+	}
+
+	/**
+	 * Count verbs and arguments written past the end and claim them.
+	 */
+	private void advance(int addedVerbs, int addedCoords) {
+		verbCount += addedVerbs;
+		coordCount += addedCoords;
+		frontier.verbs = verbCount;
+		frontier.coords = coordCount;
+	}
+
+	/**
+	 * Write the verbs and arguments to the given output. The arguments are
+	 * converted to big-endian floats in chunks, so streams see a few large
+	 * writes instead of four single-byte writes per float.
+	 */
+	void writeTo(DataOutput out) throws IOException {
+		out.writeInt(verbCount);
+		out.writeInt(coordCount);
+		out.write(verbs, 0, verbCount);
+
+		final byte[] chunk = new byte[Math.min(CHUNK_SIZE, coordCount * 4)];
+		for (int i = 0; i < coordCount;) {
+			int length = 0;
+			for (; length < chunk.length && i < coordCount; i++) {
+				final int bits = Float.floatToIntBits(coords[i]);
+				chunk[length++] = (byte) (bits >>> 24);
+				chunk[length++] = (byte) (bits >>> 16);
+				chunk[length++] = (byte) (bits >>> 8);
+				chunk[length++] = (byte) bits;
+			}
+			out.write(chunk, 0, length);
+		}
+	}
+
+	/**
+	 * Read verbs and arguments written by {@link #writeTo(DataOutput)}. The
+	 * length of a stream is unknown, so the arrays grow with the data actually
+	 * read instead of being allocated for the declared counts up front.
+	 */
+	static PathBuffer readFrom(DataInput in) throws IOException {
+		final int verbCount = in.readInt();
+		final int coordCount = in.readInt();
+		if (verbCount < 0 || coordCount < 0 || verbCount + coordCount * 4L > MAX_READ_LENGTH) {
+			throw new IOException("Malformed path buffer");
+		}
+
+		byte[] verbs = new byte[Math.min(verbCount, CHUNK_SIZE)];
+		in.readFully(verbs);
+		while (verbs.length < verbCount) {
+			final int read = verbs.length;
+			verbs = Arrays.copyOf(verbs, Math.min(verbCount, read * 2));
+			in.readFully(verbs, read, verbs.length - read);
+		}
+
+		float[] coords = new float[Math.min(coordCount, CHUNK_SIZE)];
+		final byte[] chunk = new byte[Math.min(CHUNK_SIZE, coordCount * 4)];
+		for (int i = 0; i < coordCount;) {
+			final int length = Math.min(chunk.length, (coordCount - i) * 4);
+			in.readFully(chunk, 0, length);
+			if (i + length / 4 > coords.length) {
+				coords = Arrays.copyOf(coords, Math.min(coordCount, coords.length * 2));
+			}
+			for (int j = 0; j < length; j += 4) {
+				coords[i++] = Float.intBitsToFloat((chunk[j] & 0xff) << 24 | (chunk[j + 1] & 0xff) << 16
+						| (chunk[j + 2] & 0xff) << 8 | (chunk[j + 3] & 0xff));
+			}
+		}
+		return new PathBuffer(verbs, coords);
+	}
+
+	/**
+	 * Read verbs and arguments written by {@link #writeTo(DataOutput)} from a
+	 * buffer. The floats are copied in bulk through a big-endian view of the
+	 * buffer and the position is advanced past the read data.
+	 */
+	static PathBuffer readFrom(ByteBuffer in) throws IOException {
+		try {
+			final int verbCount = in.getInt();
+			final int coordCount = in.getInt();
+			if (verbCount < 0 || coordCount < 0 || verbCount + coordCount * 4L > in.remaining()) {
+				throw new IOException("Malformed path buffer");
+			}
+
+			final byte[] verbs = new byte[verbCount];
+			in.get(verbs);
+
+			final float[] coords = new float[coordCount];
+			in.asFloatBuffer().get(coords);
+			in.position(in.position() + coordCount * 4);
+			return new PathBuffer(verbs, coords);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated path buffer");
+		}
+	}
+
+	/**
+	 * Merge or drop redundant verbs in place, see
+	 * {@link PathParcelable#compact()}.
+	 * 
+	 * @return the number of dropped verbs.
+	 */
+	int compact() {
+		detach();
+		final byte[] v = verbs;
+		final float[] c = coords;
+		int written = 0, writtenCoords = 0;
+		byte last = -1;
+		int lastAt = 0;
+		for (int i = 0, at = 0; i < verbCount; i++) {
+			final byte verb = v[i];
+			final int arguments = ARGUMENTS[verb];
+			final byte next = i + 1 < verbCount ? v[i + 1] : -1;
+
+			switch (verb) {
+			case MOVE_TO:
+				if (last == MOVE_TO || last == R_MOVE_TO) {
+					// a move directly followed by another move is replaced by it
+					v[written - 1] = MOVE_TO;
+					c[lastAt] = c[at];
+					c[lastAt + 1] = c[at + 1];
+					last = MOVE_TO;
+					at += arguments;
+					continue;
+				}
+				break;
+
+			case R_MOVE_TO:
+				if (last == MOVE_TO || last == R_MOVE_TO) {
+					c[lastAt] += c[at];
+					c[lastAt + 1] += c[at + 1];
+					at += arguments;
+					continue;
+				}
+				break;
+
+			case LINE_TO:
+				// zero length lines within a polyline don't change its outline,
+				// keep the one that might be the only segment of a contour
+				if (last == LINE_TO && next != LAST_POINT && c[lastAt] == c[at] && c[lastAt + 1] == c[at + 1]) {
+					at += arguments;
+					continue;
+				}
+				break;
+
+			case R_LINE_TO:
+				if ((last == LINE_TO || last == R_LINE_TO) && next != LAST_POINT && c[at] == 0 && c[at + 1] == 0) {
+					at += arguments;
+					continue;
+				}
+				break;
+
+			case OFFSET:
+				if (last == OFFSET) {
+					c[lastAt] += c[at];
+					c[lastAt + 1] += c[at + 1];
+					at += arguments;
+					if (c[lastAt] == 0 && c[lastAt + 1] == 0) {
+						written--;
+						writtenCoords = lastAt;
+						last = -1;
+					}
+					continue;
+				} else if (c[at] == 0 && c[at + 1] == 0) {
+					at += arguments;
+					continue;
+				}
+				break;
+
+			case MATRIX_TRANSFORMATION:
+				if (isIdentity(c, at)) {
+					at += arguments;
+					continue;
+				} else if (last == MATRIX_TRANSFORMATION && isAffine(c, lastAt) && isAffine(c, at)) {
+					concat(c, at, lastAt);
+					at += arguments;
+					if (isIdentity(c, lastAt)) {
+						written--;
+						writtenCoords = lastAt;
+						last = -1;
+					}
+					continue;
+				}
+				break;
+			}
+
+			if (written != i) {
+				v[written] = verb;
+				System.arraycopy(c, at, c, writtenCoords, arguments);
+			}
+			last = verb;
+			lastAt = writtenCoords;
+			written++;
+			writtenCoords += arguments;
+			at += arguments;
+		}
+
+		final int dropped = verbCount - written;
+		if (dropped > 0) {
+			verbCount = written;
+			coordCount = writtenCoords;
+			frontier.verbs = written;
+			frontier.coords = writtenCoords;
+			revision++;
+			invalidateHash();
+		}
+		return dropped;
+	}
+
+	private static boolean isAffine(float[] m, int at) {
+		return m[at + 6] == 0 && m[at + 7] == 0 && m[at + 8] == 1;
+	}
+
+	private static boolean isIdentity(float[] m, int at) {
+		return m[at] == 1 && m[at + 1] == 0 && m[at + 2] == 0 && m[at + 3] == 0 && m[at + 4] == 1 && m[at + 5] == 0
+				&& isAffine(m, at);
+	}
+
+	/**
+	 * Replace the affine matrix at <code>first</code> by the matrix that
+	 * applies it followed by the affine matrix at <code>second</code>.
+	 */
+	private static void concat(float[] m, int second, int first) {
+		final float a0 = m[second], a1 = m[second + 1], a2 = m[second + 2];
+		final float a3 = m[second + 3], a4 = m[second + 4], a5 = m[second + 5];
+		final float b0 = m[first], b1 = m[first + 1], b2 = m[first + 2];
+		final float b3 = m[first + 3], b4 = m[first + 4], b5 = m[first + 5];
+		m[first] = a0 * b0 + a1 * b3;
+		m[first + 1] = a0 * b1 + a1 * b4;
+		m[first + 2] = a0 * b2 + a1 * b5 + a2;
+		m[first + 3] = a3 * b0 + a4 * b3;
+		m[first + 4] = a3 * b1 + a4 * b4;
+		m[first + 5] = a3 * b2 + a4 * b5 + a5;
+	}
+
+	void clear() {
+		verbCount = 0;
+		coordCount = 0;
+		if (!frontier.shared) {
+			// keep the storage, nobody else can see it
+			frontier.verbs = 0;
+			frontier.coords = 0;
+		}
+		revision++;
+		invalidateHash();
+	}
+
+	/**
+	 * Forget the cached hash. Has to be called whenever recorded data is
+	 * changed other than by appending.
+	 */
+	void invalidateHash() {
+		verbHash = 1;
+		coordHash = 1;
+		hashedVerbs = 0;
+		hashedCoords = 0;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		if (hashedVerbs > verbCount || hashedCoords > coordCount) {
+			invalidateHash();
+		}
+
+		int result = verbHash;
+		for (int i = hashedVerbs; i < verbCount; i++) {
+			result = prime * result + verbs[i];
+		}
+		verbHash = result;
+		hashedVerbs = verbCount;
+
+		result = coordHash;
+		for (int i = hashedCoords; i < coordCount; i++) {
+			result = prime * result + Float.floatToIntBits(coords[i]);
+		}
+		coordHash = result;
+		hashedCoords = coordCount;
+
+		return prime * verbHash + coordHash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof PathBuffer)) {
+			return false;
+		}
+		PathBuffer other = (PathBuffer) obj;
+		if (verbCount != other.verbCount || coordCount != other.coordCount) {
+			return false;
+		}
+		if (hashCode() != other.hashCode()) {
+			return false;
+		}
+		for (int i = 0; i < verbCount; i++) {
+			if (verbs[i] != other.verbs[i]) {
+				return false;
+			}
+		}
+		for (int i = 0; i < coordCount; i++) {
+			if (Float.floatToIntBits(coords[i]) != Float.floatToIntBits(other.coords[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
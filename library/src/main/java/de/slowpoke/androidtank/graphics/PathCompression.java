@@ -0,0 +1,464 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.graphics;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import android.graphics.Matrix;
+
+/**
+ * Lossy encoding of the arguments of a {@link PathBuffer}. Coordinates are
+ * quantized to multiples of a fixed step, absolute points are delta coded
+ * against the previous absolute point and all quantized values are written as
+ * zig-zag varints. Arguments that are not coordinates, like angles, directions
+ * and matrix values, are kept as raw floats.
+ *
+ * <p>
+ * Relative calls and offsets are not quantized on their own, which would let
+ * the rounding errors add up along a chain of relative calls. The encoder
+ * follows the current point both as recorded and as the decoder will restore
+ * it, and writes the offset that brings the restored point closest to the
+ * recorded one. Coordinates recorded before a transformation are quantized
+ * with the step divided by the scale of the transformations following them,
+ * so the error after the transformation stays within the step.
+ * </p>
+ */
+final class PathCompression {
+
+	/**
+	 * Upper bound of the scale the step is divided by, degenerate
+	 * transformations must not shrink the step to nothing.
+	 */
+	private static final double MAX_SCALE = 1 << 16;
+
+	private PathCompression() {
+	}
+
+	/**
+	 * Encode the arguments of the given buffer.
+	 *
+	 * @param step
+	 *            the quantization step, coordinates are rounded to multiples
+	 *            of it.
+	 * @return the encoded arguments, the verbs are not part of the result.
+	 */
+	static byte[] encode(PathBuffer buffer, float step) {
+		final byte[] verbs = buffer.verbs;
+		final float[] c = buffer.coords;
+		final int verbCount = buffer.verbCount;
+		final double[] steps = steps(verbs, verbCount, matrices(verbs, verbCount, c), step);
+
+		// the current point as recorded and as restored by decode()
+		final Cursor recorded = new Cursor();
+		final Cursor restored = new Cursor();
+		final float[] decoded = new float[13];
+
+		byte[] out = new byte[Math.max(16, buffer.coordCount * 2)];
+		int length = 0;
+		long lastX = 0, lastY = 0;
+		for (int i = 0, at = 0; i < verbCount; i++) {
+			final byte verb = verbs[i];
+			final int arguments = PathBuffer.arguments(verb);
+			final int start = at;
+			final int end = at + arguments;
+			final double s = steps == null ? step : steps[i];
+
+			// worst case: 10 bytes per varint, 4 bytes per raw float
+			if (length + arguments * 10 > out.length) {
+				out = Arrays.copyOf(out, Math.max(out.length * 2, length + arguments * 10));
+			}
+
+			final boolean relative = PathBuffer.isRelative(verb);
+			for (int pair = PathBuffer.pairs(verb), k = 0; pair > 0; pair--, at += 2, k += 2) {
+				if (relative) {
+					// aim at the recorded target from the restored origin
+					final long x, y;
+					if (verb == PathBuffer.OFFSET) {
+						x = Math.round((recorded.offsetX + (double) c[at] - restored.offsetX) / s);
+						y = Math.round((recorded.offsetY + (double) c[at + 1] - restored.offsetY) / s);
+					} else {
+						x = Math.round((recorded.x + (double) c[at] - restored.x) / s);
+						y = Math.round((recorded.y + (double) c[at + 1] - restored.y) / s);
+					}
+					length = writeVarLong(out, length, x);
+					length = writeVarLong(out, length, y);
+					decoded[k] = (float) (x * s);
+					decoded[k + 1] = (float) (y * s);
+				} else {
+					final long x = quantize(c[at], s);
+					final long y = quantize(c[at + 1], s);
+					length = writeVarLong(out, length, x - lastX);
+					length = writeVarLong(out, length, y - lastY);
+					lastX = x;
+					lastY = y;
+					decoded[k] = (float) (x * s);
+					decoded[k + 1] = (float) (y * s);
+				}
+			}
+			for (int k = at - start; at < end; at++, k++) {
+				final int bits = Float.floatToIntBits(c[at]);
+				out[length++] = (byte) (bits >>> 24);
+				out[length++] = (byte) (bits >>> 16);
+				out[length++] = (byte) (bits >>> 8);
+				out[length++] = (byte) bits;
+				decoded[k] = c[at];
+			}
+			recorded.advance(verb, c, start);
+			restored.advance(verb, decoded, 0);
+		}
+		return Arrays.copyOf(out, length);
+	}
+
+	/**
+	 * Decode arguments written by {@link #encode(PathBuffer, float)}.
+	 *
+	 * @param verbs
+	 *            the verbs of the encoded buffer, they are used as storage of
+	 *            the result.
+	 */
+	static PathBuffer decode(byte[] verbs, byte[] in, float step) throws IOException {
+		final int coordCount = countArguments(verbs);
+		final float[] c = new float[coordCount];
+
+		final int[] position = new int[1];
+		long lastX = 0, lastY = 0;
+		try {
+			final double[] steps = steps(verbs, verbs.length, matrices(verbs, in), step);
+			for (int i = 0, at = 0; i < verbs.length; i++) {
+				final byte verb = verbs[i];
+				final int end = at + PathBuffer.arguments(verb);
+				final double s = steps == null ? step : steps[i];
+
+				final boolean relative = PathBuffer.isRelative(verb);
+				for (int pair = PathBuffer.pairs(verb); pair > 0; pair--, at += 2) {
+					long x = readVarLong(in, position);
+					long y = readVarLong(in, position);
+					if (!relative) {
+						x += lastX;
+						y += lastY;
+						lastX = x;
+						lastY = y;
+					}
+					c[at] = (float) (x * s);
+					c[at + 1] = (float) (y * s);
+				}
+				for (; at < end; at++) {
+					c[at] = readFloat(in, position[0]);
+					position[0] += 4;
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Truncated compressed path");
+		}
+		if (position[0] != in.length) {
+			throw new IOException("Malformed compressed path");
+		}
+		return new PathBuffer(verbs, c);
+	}
+
+	private static int countArguments(byte[] verbs) throws IOException {
+		int count = 0;
+		for (byte verb : verbs) {
+			final int arguments = PathBuffer.arguments(verb);
+			if (arguments < 0) {
+				throw new IOException("Unknown verb " + verb);
+			}
+			count += arguments;
+		}
+		return count;
+	}
+
+	/**
+	 * Collect the values of the recorded transformations.
+	 *
+	 * @return the values of all transformations in order, or
+	 *         <code>null</code> if there are none.
+	 */
+	private static float[] matrices(byte[] verbs, int verbCount, float[] c) {
+		float[] matrices = null;
+		int count = 0;
+		for (int i = 0, at = 0; i < verbCount; i++) {
+			if (verbs[i] == PathBuffer.MATRIX_TRANSFORMATION) {
+				if (matrices == null) {
+					matrices = new float[9 * 4];
+				} else if (count == matrices.length) {
+					matrices = Arrays.copyOf(matrices, count * 2);
+				}
+				System.arraycopy(c, at, matrices, count, 9);
+				count += 9;
+			}
+			at += PathBuffer.arguments(verbs[i]);
+		}
+		return matrices == null ? null : Arrays.copyOf(matrices, count);
+	}
+
+	/**
+	 * Collect the values of the transformations from encoded arguments,
+	 * skipping the varints.
+	 */
+	private static float[] matrices(byte[] verbs, byte[] in) {
+		float[] matrices = null;
+		int count = 0;
+		int p = 0;
+		for (byte verb : verbs) {
+			if (verb == PathBuffer.MATRIX_TRANSFORMATION) {
+				if (matrices == null) {
+					matrices = new float[9 * 4];
+				} else if (count == matrices.length) {
+					matrices = Arrays.copyOf(matrices, count * 2);
+				}
+				for (int k = 0; k < 9; k++, p += 4) {
+					matrices[count++] = readFloat(in, p);
+				}
+				continue;
+			}
+			final int pairs = PathBuffer.pairs(verb);
+			for (int varints = pairs * 2; varints > 0; varints--) {
+				while (in[p++] < 0) {
+					// continuation byte
+				}
+			}
+			p += (PathBuffer.arguments(verb) - pairs * 2) * 4;
+		}
+		return matrices == null ? null : Arrays.copyOf(matrices, count);
+	}
+
+	/**
+	 * Compute the step of every verb, the given step divided by the scale of
+	 * the transformations recorded after the verb. The scale is the largest
+	 * factor a coordinate error can grow by, the maximum absolute row sum of
+	 * the linear part of the transformations. Perspective is ignored.
+	 *
+	 * @return the step of every verb, or <code>null</code> if there are no
+	 *         transformations and all verbs use the given step.
+	 */
+	private static double[] steps(byte[] verbs, int verbCount, float[] matrices, float step) {
+		if (matrices == null) {
+			return null;
+		}
+		final double[] steps = new double[verbCount];
+		// linear part of the transformations following the current verb
+		double a = 1, b = 0, c = 0, d = 1;
+		int m = matrices.length;
+		for (int i = verbCount - 1; i >= 0; i--) {
+			if (verbs[i] == PathBuffer.MATRIX_TRANSFORMATION) {
+				m -= 9;
+				// the earlier transformation is applied first
+				final double ma = matrices[m + Matrix.MSCALE_X], mb = matrices[m + Matrix.MSKEW_X];
+				final double mc = matrices[m + Matrix.MSKEW_Y], md = matrices[m + Matrix.MSCALE_Y];
+				final double na = a * ma + b * mc, nb = a * mb + b * md;
+				final double nc = c * ma + d * mc, nd = c * mb + d * md;
+				a = na;
+				b = nb;
+				c = nc;
+				d = nd;
+			}
+			final double scale = Math.max(Math.abs(a) + Math.abs(b), Math.abs(c) + Math.abs(d));
+			// NaN from degenerate values falls back to the given step
+			steps[i] = scale > 1 ? step / Math.min(scale, MAX_SCALE) : step;
+		}
+		return steps;
+	}
+
+	private static long quantize(float value, double step) {
+		return Math.round(value / step);
+	}
+
+	private static float readFloat(byte[] in, int p) {
+		return Float.intBitsToFloat((in[p] & 0xff) << 24 | (in[p + 1] & 0xff) << 16 | (in[p + 2] & 0xff) << 8
+				| (in[p + 3] & 0xff));
+	}
+
+	private static int writeVarLong(byte[] out, int position, long value) {
+		long zigZag = (value << 1) ^ (value >> 63);
+		while ((zigZag & ~0x7FL) != 0) {
+			out[position++] = (byte) ((zigZag & 0x7F) | 0x80);
+			zigZag >>>= 7;
+		}
+		out[position++] = (byte) zigZag;
+		return position;
+	}
+
+	private static long readVarLong(byte[] in, int[] position) throws IOException {
+		int p = position[0];
+		long zigZag = 0;
+		for (int shift = 0;; shift += 7) {
+			if (shift > 63) {
+				throw new IOException("Malformed varint");
+			}
+			final byte b = in[p++];
+			zigZag |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				break;
+			}
+		}
+		position[0] = p;
+		return (zigZag >>> 1) ^ -(zigZag & 1);
+	}
+
+	/**
+	 * Follows the current point through the recorded calls, like
+	 * {@link PathBounds} does. The point after shapes whose last point depends
+	 * on the native implementation is taken as the origin, for the recorded
+	 * and the restored path alike.
+	 */
+	private static final class Cursor {
+
+		float x, y;
+		float startX, startY;
+		boolean contour;
+
+		/**
+		 * Sum of the recorded offsets, mapped by later transformations.
+		 */
+		float offsetX, offsetY;
+
+		void advance(byte verb, float[] c, int at) {
+			switch (verb) {
+			case PathBuffer.MOVE_TO:
+				moveTo(c[at], c[at + 1]);
+				break;
+
+			case PathBuffer.R_MOVE_TO:
+				moveTo(x + c[at], y + c[at + 1]);
+				break;
+
+			case PathBuffer.LINE_TO:
+			case PathBuffer.QUAD_TO:
+			case PathBuffer.CUBIC_TO:
+				startContour();
+				x = c[at + PathBuffer.arguments(verb) - 2];
+				y = c[at + PathBuffer.arguments(verb) - 1];
+				break;
+
+			case PathBuffer.R_LINE_TO:
+			case PathBuffer.R_QUAD_TO:
+			case PathBuffer.R_CUBIC_TO:
+				startContour();
+				x += c[at + PathBuffer.arguments(verb) - 2];
+				y += c[at + PathBuffer.arguments(verb) - 1];
+				break;
+
+			case PathBuffer.ADD_ARC:
+				if (Math.abs(c[at + 5]) >= 360) {
+					// a full arc is added as an oval
+					unknown();
+				} else {
+					arc(c, at, true);
+				}
+				break;
+
+			case PathBuffer.ARC_TO:
+				arc(c, at, c[at + 6] != 0);
+				break;
+
+			case PathBuffer.ADD_RECT:
+				// a rectangle starts at its top left corner in both directions
+				x = startX = c[at];
+				y = startY = c[at + 1];
+				contour = false;
+				break;
+
+			case PathBuffer.ADD_CIRCLE:
+			case PathBuffer.ADD_OVAL:
+			case PathBuffer.ADD_ROUNDED_RECT:
+			case PathBuffer.ADD_ROUNDED_RECT_CORNERS:
+				unknown();
+				break;
+
+			case PathBuffer.OFFSET:
+				x += c[at];
+				y += c[at + 1];
+				startX += c[at];
+				startY += c[at + 1];
+				offsetX += c[at];
+				offsetY += c[at + 1];
+				break;
+
+			case PathBuffer.MATRIX_TRANSFORMATION:
+				transform(c, at);
+				break;
+
+			case PathBuffer.CLOSE:
+				contour = false;
+				x = startX;
+				y = startY;
+				break;
+
+			case PathBuffer.LAST_POINT:
+				if (!contour) {
+					moveTo(c[at], c[at + 1]);
+				} else {
+					x = c[at];
+					y = c[at + 1];
+				}
+				break;
+			}
+		}
+
+		private void moveTo(float px, float py) {
+			x = startX = px;
+			y = startY = py;
+			contour = true;
+		}
+
+		/**
+		 * Drawing without a preceding move starts at the current point.
+		 */
+		private void startContour() {
+			if (!contour) {
+				startX = x;
+				startY = y;
+				contour = true;
+			}
+		}
+
+		private void unknown() {
+			x = y = startX = startY = 0;
+			contour = false;
+		}
+
+		private void arc(float[] c, int at, boolean forceMoveTo) {
+			final float cx = (c[at] + c[at + 2]) / 2, cy = (c[at + 1] + c[at + 3]) / 2;
+			final float rx = (c[at + 2] - c[at]) / 2, ry = (c[at + 3] - c[at + 1]) / 2;
+			final double start = Math.toRadians(c[at + 4]);
+			final double end = Math.toRadians(c[at + 4] + c[at + 5]);
+			if (forceMoveTo || !contour) {
+				moveTo((float) (cx + rx * Math.cos(start)), (float) (cy + ry * Math.sin(start)));
+			}
+			x = (float) (cx + rx * Math.cos(end));
+			y = (float) (cy + ry * Math.sin(end));
+		}
+
+		private void transform(float[] m, int at) {
+			final float m0 = m[at], m1 = m[at + 1], m2 = m[at + 2];
+			final float m3 = m[at + 3], m4 = m[at + 4], m5 = m[at + 5];
+
+			final float px = x, py = y;
+			x = m0 * px + m1 * py + m2;
+			y = m3 * px + m4 * py + m5;
+			final float sx = startX, sy = startY;
+			startX = m0 * sx + m1 * sy + m2;
+			startY = m3 * sx + m4 * sy + m5;
+			// offsets are displacements, they are not translated
+			final float ox = offsetX, oy = offsetY;
+			offsetX = m0 * ox + m1 * oy;
+			offsetY = m3 * ox + m4 * oy;
+		}
+	}
+}
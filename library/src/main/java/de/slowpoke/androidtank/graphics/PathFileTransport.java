@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.graphics;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.util.Log;
+
+/**
+ * Passes large paths through files instead of parcels, see
+ * {@link PathParcelable#setParcelFileTransport(File, int)}. A file holds the
+ * layout of {@link PathParcelable#writeToPersist(java.io.DataOutput)} without
+ * the fill type. Written files are opened by an {@link Opener}, so the
+ * transport also runs on the JVM, with plain file streams in place of
+ * <code>ParcelFileDescriptor</code>s.
+ */
+final class PathFileTransport {
+
+	private static final String TAG = "PathFileTransport";
+
+	/**
+	 * Opens a written file, before it is deleted.
+	 */
+	interface Opener<T> {
+		T open(File file) throws IOException;
+	}
+
+	private PathFileTransport() {
+	}
+
+	/**
+	 * @return whether the buffer is larger than the threshold, measured in
+	 *         the uncompressed layout.
+	 */
+	static boolean exceeds(PathBuffer buffer, int threshold) {
+		return buffer.verbCount + buffer.coordCount * 4L > threshold;
+	}
+
+	/**
+	 * Write a buffer to a new file in the given directory and open it. The
+	 * file is deleted right away, so it is gone once the opened file is
+	 * closed.
+	 *
+	 * @param compression
+	 *            the quantization step, see
+	 *            {@link PathParcelable#setCompression(float)}.
+	 * @return the opened file, or <code>null</code> if it couldn't be written
+	 *         or opened, the path has to be parceled inline then.
+	 */
+	static <T> T write(File directory, PathBuffer buffer, float compression, Opener<T> opener) {
+		File file = null;
+		try {
+			file = File.createTempFile("path", null, directory);
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			try {
+				PathParcelable.writeBuffer(buffer, compression, out);
+			} finally {
+				out.close();
+			}
+			return opener.open(file);
+		} catch (IOException e) {
+			Log.w(TAG, "Failed to write parcel file, parceling inline", e);
+			return null;
+		} finally {
+			if (file != null && !file.delete()) {
+				Log.w(TAG, "Failed to delete parcel file " + file);
+			}
+		}
+	}
+
+	/**
+	 * Read a buffer written by {@link #write(File, PathBuffer, float, Opener)}
+	 * from a memory mapping of the file, the mapping is released by the
+	 * garbage collector. The stream is closed.
+	 */
+	static PathBuffer read(FileInputStream in) throws IOException {
+		try {
+			final FileChannel channel = in.getChannel();
+			final ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return PathParcelable.readBuffer(mapped);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,420 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.graphics;
+
+import java.util.Arrays;
+
+/**
+ * Flattens the calls recorded in a {@link PathBuffer} to polylines. Curves
+ * are subdivided uniformly, the number of segments is derived from their
+ * control points by Wang's formula, arcs and ovals are subdivided by angle, so
+ * no point of a segment is further than the tolerance away from the curve.
+ * Offsets and transformations are applied to the points flattened so far, the
+ * tolerance therefore holds before transformations.
+ */
+final class PathFlattener {
+
+	/**
+	 * Upper limit for the number of segments of a single curve or arc.
+	 */
+	private static final int MAX_SEGMENTS = 1024;
+
+	private final float tolerance;
+
+	private float[] points = new float[64];
+	private int count;
+	private int[] ends = new int[4];
+	private boolean[] closed = new boolean[4];
+	private int contours;
+
+	/**
+	 * Index of the first point of the open contour, or <code>-1</code>.
+	 */
+	private int contourStart = -1;
+	private float x, y;
+	private float startX, startY;
+
+	private PathFlattener(float tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * @param tolerance
+	 *            the maximum distance of the polylines from the curves.
+	 */
+	static PathPolyline flatten(PathBuffer buffer, float tolerance) {
+		final PathFlattener flattener = new PathFlattener(tolerance);
+		flattener.replay(buffer);
+		return new PathPolyline(buffer, tolerance, flattener.points, flattener.count, flattener.ends, flattener.closed,
+				flattener.contours);
+	}
+
+	private void replay(PathBuffer buffer) {
+		final byte[] v = buffer.verbs;
+		final float[] c = buffer.coords;
+		for (int i = 0, at = 0; i < buffer.verbCount; i++) {
+			final byte verb = v[i];
+			switch (verb) {
+			case PathBuffer.MOVE_TO:
+				moveTo(c[at], c[at + 1]);
+				break;
+
+			case PathBuffer.R_MOVE_TO:
+				moveTo(x + c[at], y + c[at + 1]);
+				break;
+
+			case PathBuffer.LINE_TO:
+				lineTo(c[at], c[at + 1]);
+				break;
+
+			case PathBuffer.R_LINE_TO:
+				lineTo(x + c[at], y + c[at + 1]);
+				break;
+
+			case PathBuffer.QUAD_TO:
+				quadTo(c[at], c[at + 1], c[at + 2], c[at + 3]);
+				break;
+
+			case PathBuffer.R_QUAD_TO:
+				quadTo(x + c[at], y + c[at + 1], x + c[at + 2], y + c[at + 3]);
+				break;
+
+			case PathBuffer.CUBIC_TO:
+				cubicTo(c[at], c[at + 1], c[at + 2], c[at + 3], c[at + 4], c[at + 5]);
+				break;
+
+			case PathBuffer.R_CUBIC_TO:
+				cubicTo(x + c[at], y + c[at + 1], x + c[at + 2], y + c[at + 3], x + c[at + 4], y + c[at + 5]);
+				break;
+
+			case PathBuffer.ARC_TO:
+				arcTo(c[at], c[at + 1], c[at + 2], c[at + 3], c[at + 4], c[at + 5], c[at + 6] != 0);
+				break;
+
+			case PathBuffer.ADD_ARC:
+				if (Math.abs(c[at + 5]) >= 360) {
+					oval(c[at], c[at + 1], c[at + 2], c[at + 3], c[at + 5] < 0);
+				} else {
+					arcTo(c[at], c[at + 1], c[at + 2], c[at + 3], c[at + 4], c[at + 5], true);
+				}
+				break;
+
+			case PathBuffer.ADD_CIRCLE:
+				oval(c[at] - c[at + 2], c[at + 1] - c[at + 2], c[at] + c[at + 2], c[at + 1] + c[at + 2],
+						c[at + 3] != 0);
+				break;
+
+			case PathBuffer.ADD_OVAL:
+				oval(c[at], c[at + 1], c[at + 2], c[at + 3], c[at + 4] != 0);
+				break;
+
+			case PathBuffer.ADD_RECT:
+				rect(c[at], c[at + 1], c[at + 2], c[at + 3], c[at + 4] != 0);
+				break;
+
+			case PathBuffer.ADD_ROUNDED_RECT:
+				roundRect(c, at, c[at + 4], c[at + 5], c[at + 4], c[at + 5], c[at + 4], c[at + 5], c[at + 4],
+						c[at + 5], c[at + 6] != 0);
+				break;
+
+			case PathBuffer.ADD_ROUNDED_RECT_CORNERS:
+				roundRect(c, at, c[at + 4], c[at + 5], c[at + 6], c[at + 7], c[at + 8], c[at + 9], c[at + 10],
+						c[at + 11], c[at + 12] != 0);
+				break;
+
+			case PathBuffer.OFFSET:
+				offset(c[at], c[at + 1]);
+				break;
+
+			case PathBuffer.MATRIX_TRANSFORMATION:
+				transform(c, at);
+				break;
+
+			case PathBuffer.CLOSE:
+				close();
+				break;
+
+			case PathBuffer.LAST_POINT:
+				if (contourStart >= 0) {
+					points[count * 2 - 2] = c[at];
+					points[count * 2 - 1] = c[at + 1];
+					if (count - 1 == contourStart) {
+						startX = c[at];
+						startY = c[at + 1];
+					}
+					x = c[at];
+					y = c[at + 1];
+				} else {
+					moveTo(c[at], c[at + 1]);
+				}
+				break;
+			}
+			at += PathBuffer.arguments(verb);
+		}
+		endContour(false);
+	}
+
+	private void add(float px, float py) {
+		if (count * 2 == points.length) {
+			points = Arrays.copyOf(points, points.length * 2);
+		}
+		points[count * 2] = px;
+		points[count * 2 + 1] = py;
+		count++;
+	}
+
+	private void moveTo(float px, float py) {
+		endContour(false);
+		contourStart = count;
+		add(px, py);
+		x = startX = px;
+		y = startY = py;
+	}
+
+	/**
+	 * Add a point to the open contour, drawing without a preceding move starts
+	 * at the current point. Repeated points are skipped, zero length segments
+	 * don't contribute to the geometry.
+	 */
+	private void lineTo(float px, float py) {
+		if (contourStart < 0) {
+			moveTo(x, y);
+		}
+		if (points[count * 2 - 2] != px || points[count * 2 - 1] != py) {
+			add(px, py);
+		}
+		x = px;
+		y = py;
+	}
+
+	private void quadTo(float x1, float y1, float x2, float y2) {
+		final float x0 = x, y0 = y;
+		final float ddx = x0 - 2 * x1 + x2, ddy = y0 - 2 * y1 + y2;
+		final int n = segments((float) Math.sqrt(Math.sqrt(ddx * ddx + ddy * ddy) / (4 * tolerance)));
+		for (int i = 1; i < n; i++) {
+			final float t = (float) i / n, u = 1 - t;
+			lineTo(u * u * x0 + 2 * u * t * x1 + t * t * x2, u * u * y0 + 2 * u * t * y1 + t * t * y2);
+		}
+		lineTo(x2, y2);
+	}
+
+	private void cubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+		final float x0 = x, y0 = y;
+		final float ddx1 = x0 - 2 * x1 + x2, ddy1 = y0 - 2 * y1 + y2;
+		final float ddx2 = x1 - 2 * x2 + x3, ddy2 = y1 - 2 * y2 + y3;
+		final double dd = Math.sqrt(Math.max(ddx1 * ddx1 + ddy1 * ddy1, ddx2 * ddx2 + ddy2 * ddy2));
+		final int n = segments((float) Math.sqrt(3 * dd / (4 * tolerance)));
+		for (int i = 1; i < n; i++) {
+			final float t = (float) i / n, u = 1 - t;
+			final float a = u * u * u, b = 3 * u * u * t, d = 3 * u * t * t, e = t * t * t;
+			lineTo(a * x0 + b * x1 + d * x2 + e * x3, a * y0 + b * y1 + d * y2 + e * y3);
+		}
+		lineTo(x3, y3);
+	}
+
+	private void arcTo(float l, float t, float r, float b, float startAngle, float sweepAngle, boolean forceMoveTo) {
+		final float sweep = Math.max(-360, Math.min(360, sweepAngle));
+		final float cx = (l + r) / 2, cy = (t + b) / 2;
+		final float rx = Math.abs(r - l) / 2, ry = Math.abs(b - t) / 2;
+		final double start = Math.toRadians(startAngle);
+		final float arcX = (float) (cx + rx * Math.cos(start));
+		final float arcY = (float) (cy + ry * Math.sin(start));
+		if (forceMoveTo || contourStart < 0) {
+			moveTo(arcX, arcY);
+		} else {
+			lineTo(arcX, arcY);
+		}
+		arc(cx, cy, rx, ry, start, Math.toRadians(sweep));
+	}
+
+	/**
+	 * Add the points of an elliptic arc, except for its start point.
+	 */
+	private void arc(float cx, float cy, float rx, float ry, double start, double sweep) {
+		final int n = arcSegments(Math.max(rx, ry), sweep);
+		for (int i = 1; i <= n; i++) {
+			final double angle = start + sweep * i / n;
+			lineTo((float) (cx + rx * Math.cos(angle)), (float) (cy + ry * Math.sin(angle)));
+		}
+	}
+
+	private void oval(float l, float t, float r, float b, boolean ccw) {
+		final float cx = (l + r) / 2, cy = (t + b) / 2;
+		final float rx = Math.abs(r - l) / 2, ry = Math.abs(b - t) / 2;
+		moveTo(cx + rx, cy);
+		arc(cx, cy, rx, ry, 0, ccw ? -2 * Math.PI : 2 * Math.PI);
+		dropClosingPoint();
+		close();
+	}
+
+	private void rect(float l, float t, float r, float b, boolean ccw) {
+		moveTo(l, t);
+		if (ccw) {
+			lineTo(l, b);
+			lineTo(r, b);
+			lineTo(r, t);
+		} else {
+			lineTo(r, t);
+			lineTo(r, b);
+			lineTo(l, b);
+		}
+		close();
+	}
+
+	/**
+	 * Add a rounded rectangle with the given corner radii, starting with the
+	 * top left corner. Counter-clockwise rectangles are added clockwise and
+	 * reversed afterwards.
+	 */
+	private void roundRect(float[] c, int at, float rx1, float ry1, float rx2, float ry2, float rx3, float ry3,
+			float rx4, float ry4, boolean ccw) {
+		final float l = Math.min(c[at], c[at + 2]), r = Math.max(c[at], c[at + 2]);
+		final float t = Math.min(c[at + 1], c[at + 3]), b = Math.max(c[at + 1], c[at + 3]);
+		final float w = (r - l) / 2, h = (b - t) / 2;
+		rx1 = clamp(rx1, w);
+		ry1 = clamp(ry1, h);
+		rx2 = clamp(rx2, w);
+		ry2 = clamp(ry2, h);
+		rx3 = clamp(rx3, w);
+		ry3 = clamp(ry3, h);
+		rx4 = clamp(rx4, w);
+		ry4 = clamp(ry4, h);
+
+		final double quarter = Math.PI / 2;
+		moveTo(l + rx1, t);
+		lineTo(r - rx2, t);
+		arc(r - rx2, t + ry2, rx2, ry2, -quarter, quarter);
+		lineTo(r, b - ry3);
+		arc(r - rx3, b - ry3, rx3, ry3, 0, quarter);
+		lineTo(l + rx4, b);
+		arc(l + rx4, b - ry4, rx4, ry4, quarter, quarter);
+		lineTo(l, t + ry1);
+		arc(l + rx1, t + ry1, rx1, ry1, 2 * quarter, quarter);
+		dropClosingPoint();
+		if (ccw) {
+			// keep the start point, reverse the order of the others
+			for (int i = contourStart + 1, j = count - 1; i < j; i++, j--) {
+				final float px = points[i * 2], py = points[i * 2 + 1];
+				points[i * 2] = points[j * 2];
+				points[i * 2 + 1] = points[j * 2 + 1];
+				points[j * 2] = px;
+				points[j * 2 + 1] = py;
+			}
+			x = points[count * 2 - 2];
+			y = points[count * 2 - 1];
+		}
+		close();
+	}
+
+	/**
+	 * Drop the last point of a shape if it is the approximated start point
+	 * again, {@link #close()} adds the exact one.
+	 */
+	private void dropClosingPoint() {
+		if (count - contourStart > 1) {
+			count--;
+		}
+	}
+
+	private static float clamp(float radius, float max) {
+		return Math.max(0, Math.min(radius, max));
+	}
+
+	private void close() {
+		if (contourStart >= 0) {
+			lineTo(startX, startY);
+			endContour(true);
+		}
+		x = startX;
+		y = startY;
+	}
+
+	/**
+	 * End the open contour. Contours without a segment are dropped.
+	 */
+	private void endContour(boolean close) {
+		if (contourStart < 0) {
+			return;
+		}
+		if (count - contourStart < 2) {
+			count = contourStart;
+		} else {
+			if (contours == ends.length) {
+				ends = Arrays.copyOf(ends, contours * 2);
+				closed = Arrays.copyOf(closed, contours * 2);
+			}
+			ends[contours] = count;
+			closed[contours] = close;
+			contours++;
+		}
+		contourStart = -1;
+	}
+
+	private void offset(float dx, float dy) {
+		for (int i = 0; i < count * 2; i += 2) {
+			points[i] += dx;
+			points[i + 1] += dy;
+		}
+		x += dx;
+		y += dy;
+		startX += dx;
+		startY += dy;
+	}
+
+	private void transform(float[] m, int at) {
+		for (int i = 0; i < count * 2; i += 2) {
+			map(m, at, points, i);
+		}
+		final float[] point = { x, y, startX, startY };
+		map(m, at, point, 0);
+		map(m, at, point, 2);
+		x = point[0];
+		y = point[1];
+		startX = point[2];
+		startY = point[3];
+	}
+
+	private static void map(float[] m, int at, float[] p, int i) {
+		final float px = p[i], py = p[i + 1];
+		float w = m[at + 6] * px + m[at + 7] * py + m[at + 8];
+		if (w == 0) {
+			w = 1;
+		}
+		p[i] = (m[at] * px + m[at + 1] * py + m[at + 2]) / w;
+		p[i + 1] = (m[at + 3] * px + m[at + 4] * py + m[at + 5]) / w;
+	}
+
+	private static int segments(float n) {
+		if (n != n) {
+			// NaN, e.g. a zero tolerance
+			return MAX_SEGMENTS;
+		}
+		return Math.max(1, Math.min(MAX_SEGMENTS, (int) Math.ceil(n)));
+	}
+
+	/**
+	 * @return the number of segments needed for an arc of the given radius
+	 *         and sweep, each chord deviates at most by the tolerance.
+	 */
+	private int arcSegments(float radius, double sweep) {
+		if (radius <= tolerance) {
+			return 1;
+		}
+		final double step = 2 * Math.acos(1 - tolerance / radius);
+		return segments((float) (Math.abs(sweep) / step));
+	}
+}
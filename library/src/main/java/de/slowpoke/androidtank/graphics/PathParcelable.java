@@ -16,28 +16,127 @@
 
 package de.slowpoke.androidtank.graphics;
 
-import java.util.ArrayDeque;
-import java.util.Arrays;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import android.annotation.TargetApi;
 import android.graphics.Matrix;
 import android.graphics.Path;
 import android.graphics.RectF;
+import android.os.BadParcelableException;
 import android.os.Build;
 import android.os.Parcel;
-import android.os.Parcelable;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import de.slowpoke.androidtank.content.Persistable;
 
 /**
- * An implementation of {@link Path} which can be parceled. Note that methods
- * with {@link Path} parameters are not supported in this implementation.
+ * An implementation of {@link Path} which can be parceled and persisted. Note
+ * that methods with {@link Path} parameters only support other
+ * {@link PathParcelable}s as their source.
+ * 
+ * <p>
+ * The recorded calls are kept in a packed buffer of verbs and coordinates
+ * instead of one object per call, which keeps paths with many segments cheap
+ * for the garbage collector.
+ * </p>
  * 
  * @author Brian
  * @version 1.0
  */
 @TargetApi(Build.VERSION_CODES.GINGERBREAD)
-public class PathParcelable extends android.graphics.Path implements Parcelable {
+public class PathParcelable extends android.graphics.Path implements Persistable {
+
+	private static final String TAG = "PathParcelable";
+
+	/**
+	 * Version of the parcel layout written by {@link #writeToParcel(Parcel, int)}.
+	 */
+	private static final byte PARCEL_VERSION = 2;
+
+	/**
+	 * Version of the compressed parcel layout, see {@link #setCompression(float)}.
+	 */
+	private static final byte PARCEL_VERSION_COMPRESSED = 3;
+
+	/**
+	 * Version of the parcel layout that passes the path in a file, see
+	 * {@link #setParcelFileTransport(File, int)}.
+	 */
+	private static final byte PARCEL_VERSION_FILE = 4;
+
+	/**
+	 * Version of the binary layout written by {@link #writeToPersist(DataOutput)}.
+	 */
+	private static final byte PERSIST_VERSION = 1;
+
+	/**
+	 * Version of the compressed binary layout, see {@link #setCompression(float)}.
+	 */
+	private static final byte PERSIST_VERSION_COMPRESSED = 2;
+
+	/**
+	 * Version of the layout written by {@link #writeDeltaToParcel(Parcel, long)}.
+	 */
+	private static final byte DELTA_VERSION = 1;
+
+	private static final FillType[] FILL_TYPES = FillType.values();
+
+	/**
+	 * Where large paths are written to when parceled, or <code>null</code> to
+	 * parcel all paths inline.
+	 */
+	private static volatile File parcelFileDirectory;
+	private static volatile int parcelFileThreshold;
+
+	private static final PathFileTransport.Opener<ParcelFileDescriptor> PARCEL_FILE_OPENER = new PathFileTransport.Opener<ParcelFileDescriptor>() {
+		public ParcelFileDescriptor open(File file) throws IOException {
+			return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+		}
+	};
+
+	/**
+	 * Tolerance used to flatten curves for {@link #hitTest(float, float, float)}
+	 * and {@link #contains(float, float)}, in pixels.
+	 */
+	private static final float HIT_TOLERANCE = 0.25f;
+
+	/**
+	 * Number of tolerances {@link #flatten(float)} keeps polylines for.
+	 */
+	private static final int FLATTEN_CACHE_SIZE = 4;
+
+	final PathBuffer buffer;
+
+	private float compression;
+
+	/**
+	 * Whether the recorded calls have not been replayed onto the native path
+	 * yet, see {@link #materialize()}.
+	 */
+	private boolean deferred;
+
+	private PathBounds fastBounds;
+
+	private PathSegmentIndex segmentIndex;
+
+	/**
+	 * Recently flattened polylines, most recently used first.
+	 */
+	private PathPolyline[] flattened;
+
+	/**
+	 * Scratch space for recording matrices and replaying the recorded calls,
+	 * so neither allocates per call. The matrix is created on first use.
+	 */
+	private final float[] values = new float[9];
+	private final float[] radii = new float[8];
+	private final RectF oval = new RectF();
+	private Matrix matrix;
 
-	private final ArrayDeque<PathAction> actions;
-	
 	/**
 	 * Create a new {@link PathParcelable} with default capacity.
 	 */
@@ -52,1524 +151,1298 @@ public class PathParcelable extends android.graphics.Path implements Parcelable
 	 *            the initial capacity.
 	 */
 	public PathParcelable(int initSize) {
+		this(new PathBuffer(initSize));
+		super.incReserve(buffer.coords.length / 2);
+	}
+
+	private PathParcelable(PathBuffer buffer) {
 		super();
-		super.incReserve(initSize);
-		actions = new ArrayDeque<PathAction>(initSize);
+		this.buffer = buffer;
 	}
 
 	public PathParcelable(Parcel in) {
-		this(in.readInt());
+		this(in, false);
+	}
 
-		PathAction[] array = (PathAction[]) in.readArray(getClass().getClassLoader());
-		actions.addAll(Arrays.asList(array));
+	public PathParcelable(DataInput in) throws IOException {
+		this(in, false);
+	}
 
-		setFillType(FillType.valueOf(in.readString()));
-		restoreFromParcel();
+	private PathParcelable(Parcel in, boolean deferred) {
+		this(readBuffer(in));
+		final int fillType = in.readInt();
+		if (fillType < 0 || fillType >= FILL_TYPES.length) {
+			throw new BadParcelableException("Unknown fill type " + fillType);
+		}
+		setFillType(FILL_TYPES[fillType]);
+		restore(deferred);
 	}
 
-	@Override
-	public void moveTo(float x, float y) {
-		super.moveTo(x, y);
-		actions.add(new MoveTo(x, y));
+	private PathParcelable(DataInput in, boolean deferred) throws IOException {
+		this(readBuffer(in));
+		restorePersisted(in.readByte(), deferred);
 	}
 
-	private void perform(final MoveTo action) {
-		super.moveTo(action.x, action.y);
+	/**
+	 * Reads a path written by {@link #writeToPersist(DataOutput)} from a
+	 * buffer, e.g. a memory mapped file. The position of the buffer is
+	 * advanced past the path.
+	 * 
+	 * @param deferred
+	 *            whether to defer building the native path, see
+	 *            {@link #DEFERRED_CREATOR}.
+	 */
+	PathParcelable(ByteBuffer in, boolean deferred) throws IOException {
+		this(readBuffer(in));
+		restorePersisted(readFillType(in), deferred);
 	}
 
-	@Override
-	public void lineTo(float x, float y) {
-		super.lineTo(x, y);
-		actions.add(new LineTo(x, y));
+	/**
+	 * Parcel large paths through a file instead of the parcel itself. Binder
+	 * transactions are limited to a buffer of about 1MB shared by the whole
+	 * process, larger parcels fail with a
+	 * <code>TransactionTooLargeException</code>. Paths above the threshold are
+	 * written to an unlinked file in <code>directory</code> and only its
+	 * descriptor is parceled, the receiver maps the file and reads the path
+	 * from it, see {@link #describeContents()}.
+	 * 
+	 * @param directory
+	 *            a directory for temporary files, e.g.
+	 *            {@link android.content.Context#getCacheDir()}, or
+	 *            <code>null</code> to parcel all paths inline (the default).
+	 * @param threshold
+	 *            the size in bytes above which a path is passed in a file.
+	 */
+	public static void setParcelFileTransport(File directory, int threshold) {
+		if (threshold < 0) {
+			throw new IllegalArgumentException("Invalid threshold " + threshold);
+		}
+		parcelFileThreshold = threshold;
+		parcelFileDirectory = directory;
 	}
 
-	private void perform(final LineTo action) {
-		super.lineTo(action.x, action.y);
+	private static PathBuffer readBuffer(DataInput in) throws IOException {
+		final byte version = in.readByte();
+		if (version == PERSIST_VERSION) {
+			return PathBuffer.readFrom(in);
+		} else if (version == PERSIST_VERSION_COMPRESSED) {
+			final float step = in.readFloat();
+			final byte[] verbs = new byte[readLength(in.readInt())];
+			in.readFully(verbs);
+			final byte[] packed = new byte[readLength(in.readInt())];
+			in.readFully(packed);
+			return PathCompression.decode(verbs, packed, step);
+		}
+		throw new IOException("Unsupported PathParcelable version " + version);
 	}
 
-	@Override
-	public void cubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
-		super.cubicTo(x1, y1, x2, y2, x3, y3);
-		actions.add(new CubicTo(x1, y1, x2, y2, x3, y3));
+	/**
+	 * Reads the layout of {@link #writeToPersist(DataOutput)} without the fill
+	 * type from a buffer, advancing its position past the path.
+	 */
+	static PathBuffer readBuffer(ByteBuffer in) throws IOException {
+		try {
+			final byte version = in.get();
+			if (version == PERSIST_VERSION) {
+				return PathBuffer.readFrom(in);
+			} else if (version == PERSIST_VERSION_COMPRESSED) {
+				final float step = in.getFloat();
+				final byte[] verbs = new byte[readLength(in.getInt(), in)];
+				in.get(verbs);
+				final byte[] packed = new byte[readLength(in.getInt(), in)];
+				in.get(packed);
+				return PathCompression.decode(verbs, packed, step);
+			}
+			throw new IOException("Unsupported PathParcelable version " + version);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated PathParcelable");
+		}
+	}
+
+	private static byte readFillType(ByteBuffer in) throws IOException {
+		if (!in.hasRemaining()) {
+			throw new IOException("Truncated PathParcelable");
+		}
+		return in.get();
+	}
+
+	/**
+	 * Reads the path written by {@link #writeToFile(File)}.
+	 */
+	private static PathBuffer readBuffer(ParcelFileDescriptor fd) throws IOException {
+		return PathFileTransport.read(new ParcelFileDescriptor.AutoCloseInputStream(fd));
+	}
+
+	private static int readLength(int length) throws IOException {
+		if (length < 0) {
+			throw new IOException("Malformed PathParcelable, negative length " + length);
+		}
+		return length;
+	}
+
+	/**
+	 * Check a length read from a buffer before allocating for it.
+	 */
+	private static int readLength(int length, ByteBuffer in) throws IOException {
+		if (readLength(length) > in.remaining()) {
+			throw new IOException("Truncated PathParcelable, " + length + " bytes declared, " + in.remaining()
+					+ " left");
+		}
+		return length;
+	}
+
+	private void restorePersisted(int fillType, boolean deferred) throws IOException {
+		if (fillType < 0 || fillType >= FILL_TYPES.length) {
+			throw new IOException("Unknown fill type " + fillType);
+		}
+		setFillType(FILL_TYPES[fillType]);
+		try {
+			restore(deferred);
+		} catch (BadParcelableException e) {
+			throw new IOException(e.getMessage());
+		}
 	}
 
-	private void perform(final CubicTo actions) {
-		super.cubicTo(actions.x1, actions.y1, actions.x2, actions.y2, actions.x3, actions.y3);
+	/**
+	 * Replay the restored buffer, or only validate it if the replay is
+	 * deferred until the native path is needed.
+	 */
+	private void restore(boolean deferred) {
+		if (deferred) {
+			validate(buffer.verbs, buffer.verbCount, buffer.coords, buffer.coordCount);
+			this.deferred = true;
+		} else {
+			restoreFromParcel();
+		}
+	}
+
+	/**
+	 * Reads the packed verbs and arguments of a parceled path. The arrays
+	 * created by the {@link Parcel} are used as the storage of the path without
+	 * further copying, they are validated while being replayed.
+	 */
+	private static PathBuffer readBuffer(Parcel in) {
+		final byte version = in.readByte();
+		if (version == PARCEL_VERSION) {
+			final byte[] verbs = in.createByteArray();
+			final float[] coords = in.createFloatArray();
+			if (verbs == null || coords == null) {
+				throw new BadParcelableException("Malformed PathParcelable");
+			}
+			return new PathBuffer(verbs, coords);
+		} else if (version == PARCEL_VERSION_COMPRESSED) {
+			final float step = in.readFloat();
+			final byte[] verbs = in.createByteArray();
+			final byte[] packed = in.createByteArray();
+			if (verbs == null || packed == null) {
+				throw new BadParcelableException("Malformed PathParcelable");
+			}
+			try {
+				return PathCompression.decode(verbs, packed, step);
+			} catch (IOException e) {
+				throw new BadParcelableException(e);
+			}
+		} else if (version == PARCEL_VERSION_FILE) {
+			final ParcelFileDescriptor fd = in.readFileDescriptor();
+			if (fd == null) {
+				throw new BadParcelableException("Malformed PathParcelable");
+			}
+			try {
+				return readBuffer(fd);
+			} catch (IOException e) {
+				throw new BadParcelableException(e);
+			}
+		}
+		throw new BadParcelableException("Unsupported PathParcelable version " + version);
 	}
 
 	@Override
-	public void arcTo(RectF oval, float startAngle, float sweepAngle, boolean forceMoveTo) {
-		super.arcTo(oval, startAngle, sweepAngle, forceMoveTo);
-		actions.add(new ArcTo(oval, startAngle, sweepAngle, forceMoveTo));
+	public void moveTo(float x, float y) {
+		if (!deferred) {
+			super.moveTo(x, y);
+		}
+		buffer.append(PathBuffer.MOVE_TO, x, y);
 	}
 
 	@Override
-	public void arcTo(RectF oval, float startAngle, float sweepAngle) {
-		super.arcTo(oval, startAngle, sweepAngle);
-		actions.add(new ArcTo(oval, startAngle, sweepAngle, false));
+	public void lineTo(float x, float y) {
+		if (!deferred) {
+			super.lineTo(x, y);
+		}
+		buffer.append(PathBuffer.LINE_TO, x, y);
 	}
 
-	private void perform(final ArcTo action) {
-		super.arcTo(action.oval, action.startAngle, action.sweepAngle, action.forceMoveTo);
+	@Override
+	public void cubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+		if (!deferred) {
+			super.cubicTo(x1, y1, x2, y2, x3, y3);
+		}
+		buffer.append(PathBuffer.CUBIC_TO, x1, y1, x2, y2, x3, y3);
 	}
 
 	@Override
-	public void addArc(RectF oval, float startAngle, float sweepAngle) {
-		super.addArc(oval, startAngle, sweepAngle);
-		actions.add(new AddArc(oval, startAngle, sweepAngle));
+	public void arcTo(RectF oval, float startAngle, float sweepAngle, boolean forceMoveTo) {
+		if (!deferred) {
+			super.arcTo(oval, startAngle, sweepAngle, forceMoveTo);
+		}
+		recordArc(PathBuffer.ARC_TO, oval, startAngle, sweepAngle, forceMoveTo);
 	}
 
-	private void perform(final AddArc action) {
-		super.addArc(action.oval, action.startAngle, action.sweepAngle);
+	@Override
+	public void arcTo(RectF oval, float startAngle, float sweepAngle) {
+		if (!deferred) {
+			super.arcTo(oval, startAngle, sweepAngle);
+		}
+		recordArc(PathBuffer.ARC_TO, oval, startAngle, sweepAngle, false);
 	}
 
 	@Override
-	public void addCircle(float x, float y, float radius, Direction dir) {
-		super.addCircle(x, y, radius, dir);
-		actions.add(new AddCircle(x, y, radius, dir));
+	public void addArc(RectF oval, float startAngle, float sweepAngle) {
+		if (!deferred) {
+			super.addArc(oval, startAngle, sweepAngle);
+		}
+		recordArc(PathBuffer.ADD_ARC, oval, startAngle, sweepAngle, false);
 	}
 
-	private void perform(final AddCircle action) {
-		super.addCircle(action.x, action.y, action.radius, action.dir);
+	private void recordArc(byte verb, RectF oval, float startAngle, float sweepAngle, boolean forceMoveTo) {
+		final int at = buffer.append(verb);
+		final float[] coords = buffer.coords;
+		coords[at] = oval.left;
+		coords[at + 1] = oval.top;
+		coords[at + 2] = oval.right;
+		coords[at + 3] = oval.bottom;
+		coords[at + 4] = startAngle;
+		coords[at + 5] = sweepAngle;
+		if (verb == PathBuffer.ARC_TO) {
+			coords[at + 6] = forceMoveTo ? 1 : 0;
+		}
 	}
 
 	@Override
-	public void addOval(RectF oval, Direction dir) {
-		super.addOval(oval, dir);
-		actions.add(new AddOval(oval, dir));
+	public void addCircle(float x, float y, float radius, Direction dir) {
+		if (!deferred) {
+			super.addCircle(x, y, radius, dir);
+		}
+		buffer.append(PathBuffer.ADD_CIRCLE, x, y, radius, PathBuffer.encode(dir));
 	}
 
-	private void perform(final AddOval action) {
-		super.addOval(action.oval, action.dir);
+	@Override
+	public void addOval(RectF oval, Direction dir) {
+		if (!deferred) {
+			super.addOval(oval, dir);
+		}
+		recordRect(PathBuffer.ADD_OVAL, oval.left, oval.top, oval.right, oval.bottom, dir);
 	}
 
 	/**
-	 * Unsupported.
-	 * @deprecated This method is not supported.
+	 * Add a copy of <code>src</code> to this path. The recorded calls of the
+	 * source are appended in bulk, they are not replayed.
+	 * 
+	 * @param src
+	 *            a {@link PathParcelable} which does not contain
+	 *            <code>offset</code> or <code>transform</code> calls, those
+	 *            would also move the contours of this path.
+	 * @throws UnsupportedOperationException
+	 *             if the source can't be recorded.
 	 */
 	@Override
-	@Deprecated
 	public void addPath(android.graphics.Path src) {
-		throw new UnsupportedOperationException();
+		final PathBuffer source = relocatable(src);
+		if (!deferred) {
+			((PathParcelable) src).materialize();
+			super.addPath(src);
+		}
+		buffer.append(source, null);
 	}
 
 	/**
-	 * Unsupported.
-	 * @deprecated This method is not supported.
+	 * Add a copy of <code>src</code> offset by <code>(dx, dy)</code> to this
+	 * path, see {@link #addPath(android.graphics.Path)}.
 	 */
 	@Override
-	@Deprecated
 	public void addPath(android.graphics.Path src, float dx, float dy) {
-		throw new UnsupportedOperationException();
+		final PathBuffer source = relocatable(src);
+		if (!deferred) {
+			((PathParcelable) src).materialize();
+			super.addPath(src, dx, dy);
+		}
+		final float[] values = this.values;
+		values[0] = 1;
+		values[1] = 0;
+		values[2] = dx;
+		values[3] = 0;
+		values[4] = 1;
+		values[5] = dy;
+		values[6] = 0;
+		values[7] = 0;
+		values[8] = 1;
+		buffer.append(source, values);
 	}
 
 	/**
-	 * Unsupported.
-	 * @deprecated This method is not supported.
+	 * Add a copy of <code>src</code> transformed by <code>matrix</code> to
+	 * this path, see {@link #addPath(android.graphics.Path)}. Unless the matrix
+	 * is a translation, the source may only contain moves, lines and curves,
+	 * since arcs and shapes can't be recorded in transformed form. Perspective
+	 * matrices are not supported.
 	 */
 	@Override
-	@Deprecated
 	public void addPath(android.graphics.Path src, Matrix matrix) {
-		throw new UnsupportedOperationException();
+		final PathBuffer source = relocatable(src);
+		final float[] values = this.values;
+		matrix.getValues(values);
+		if (values[6] != 0 || values[7] != 0 || values[8] != 1) {
+			throw new UnsupportedOperationException("Perspective transformations can't be recorded");
+		}
+		final boolean translation = values[0] == 1 && values[1] == 0 && values[3] == 0 && values[4] == 1;
+		if (!translation && !source.isAffinelyMappable()) {
+			throw new UnsupportedOperationException("Arcs and shapes can only be added with a translation");
+		}
+		if (!deferred) {
+			((PathParcelable) src).materialize();
+			super.addPath(src, matrix);
+		}
+		buffer.append(source, values);
+	}
+
+	private static PathBuffer relocatable(android.graphics.Path src) {
+		if (!(src instanceof PathParcelable)) {
+			throw new UnsupportedOperationException("Only PathParcelable sources can be recorded");
+		}
+		final PathBuffer source = ((PathParcelable) src).buffer;
+		if (!source.isRelocatable()) {
+			throw new UnsupportedOperationException("Paths with offset or transform calls can't be added");
+		}
+		return source;
 	}
 
 	@Override
 	public void addRect(float left, float top, float right, float bottom, Direction dir) {
-		super.addRect(left, top, right, bottom, dir);
-		actions.add(new AddRect(left, top, right, bottom, dir));
+		if (!deferred) {
+			super.addRect(left, top, right, bottom, dir);
+		}
+		recordRect(PathBuffer.ADD_RECT, left, top, right, bottom, dir);
 	}
 
 	@Override
 	public void addRect(RectF rect, Direction dir) {
-		super.addRect(rect, dir);
-		actions.add(new AddRect(rect, dir));
+		if (!deferred) {
+			super.addRect(rect, dir);
+		}
+		recordRect(PathBuffer.ADD_RECT, rect.left, rect.top, rect.right, rect.bottom, dir);
 	}
 
-	private void perform(final AddRect action) {
-		super.addRect(action.rect, action.dir);
+	private void recordRect(byte verb, float left, float top, float right, float bottom, Direction dir) {
+		final int at = buffer.append(verb);
+		final float[] coords = buffer.coords;
+		coords[at] = left;
+		coords[at + 1] = top;
+		coords[at + 2] = right;
+		coords[at + 3] = bottom;
+		coords[at + 4] = PathBuffer.encode(dir);
 	}
 
 	@Override
 	public void addRoundRect(RectF rect, float rx, float ry, Direction dir) {
-		super.addRoundRect(rect, rx, ry, dir);
-		actions.add(new AddRoundedRect(rect, rx, ry, dir));
-	}
-
-	private void perform(final AddRoundedRect action) {
-		super.addRoundRect(action.rect, action.rx, action.ry, action.dir);
+		if (!deferred) {
+			super.addRoundRect(rect, rx, ry, dir);
+		}
+		final int at = buffer.append(PathBuffer.ADD_ROUNDED_RECT);
+		final float[] coords = buffer.coords;
+		coords[at] = rect.left;
+		coords[at + 1] = rect.top;
+		coords[at + 2] = rect.right;
+		coords[at + 3] = rect.bottom;
+		coords[at + 4] = rx;
+		coords[at + 5] = ry;
+		coords[at + 6] = PathBuffer.encode(dir);
 	}
 
 	@Override
 	public void addRoundRect(RectF rect, float[] radii, Direction dir) {
-		super.addRoundRect(rect, radii, dir);
-		actions.add(new AddRoundedRectCorners(rect, radii, dir));
-	}
-
-	private void perform(final AddRoundedRectCorners action) {
-		super.addRoundRect(action.rect, action.radii, action.dir);
+		if (!deferred) {
+			super.addRoundRect(rect, radii, dir);
+		}
+		final int at = buffer.append(PathBuffer.ADD_ROUNDED_RECT_CORNERS);
+		final float[] coords = buffer.coords;
+		coords[at] = rect.left;
+		coords[at + 1] = rect.top;
+		coords[at + 2] = rect.right;
+		coords[at + 3] = rect.bottom;
+		System.arraycopy(radii, 0, coords, at + 4, 8);
+		coords[at + 12] = PathBuffer.encode(dir);
 	}
 
 	@Override
 	public void quadTo(float x1, float y1, float x2, float y2) {
-		super.quadTo(x1, y1, x2, y2);
-		actions.add(new QuadTo(x1, y1, x2, y2));
-	}
-
-	private void perform(final QuadTo action) {
-		super.quadTo(action.x1, action.y1, action.x2, action.y2);
+		if (!deferred) {
+			super.quadTo(x1, y1, x2, y2);
+		}
+		buffer.append(PathBuffer.QUAD_TO, x1, y1, x2, y2);
 	}
 
 	@Override
 	public void rCubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
-		super.rCubicTo(x1, y1, x2, y2, x3, y3);
-		actions.add(new RCubicTo(x1, y1, x2, y2, x3, y3));
-	}
-
-	private void perform(final RCubicTo action) {
-		super.rCubicTo(action.x1, action.y1, action.x2, action.y2, action.x3, action.y3);
+		if (!deferred) {
+			super.rCubicTo(x1, y1, x2, y2, x3, y3);
+		}
+		buffer.append(PathBuffer.R_CUBIC_TO, x1, y1, x2, y2, x3, y3);
 	}
 
 	@Override
 	public void rLineTo(float dx, float dy) {
-		super.rLineTo(dx, dy);
-		actions.add(new RLineTo(dx, dy));
-	}
-
-	private void perform(final RLineTo action) {
-		super.rLineTo(action.x, action.y);
+		if (!deferred) {
+			super.rLineTo(dx, dy);
+		}
+		buffer.append(PathBuffer.R_LINE_TO, dx, dy);
 	}
 
 	@Override
 	public void rMoveTo(float dx, float dy) {
-		super.rMoveTo(dx, dy);
-		actions.add(new RMoveTo(dx, dy));
-	}
-
-	private void perform(final RMoveTo action) {
-		super.rMoveTo(action.x, action.y);
+		if (!deferred) {
+			super.rMoveTo(dx, dy);
+		}
+		buffer.append(PathBuffer.R_MOVE_TO, dx, dy);
 	}
 
 	@Override
 	public void rQuadTo(float dx1, float dy1, float dx2, float dy2) {
-		super.rQuadTo(dx1, dy1, dx2, dy2);
-		actions.add(new RQuadTo(dx1, dy1, dx2, dy2));
-	}
-
-	private void perform(final RQuadTo action) {
-		super.rQuadTo(action.x1, action.y1, action.x2, action.y2);
+		if (!deferred) {
+			super.rQuadTo(dx1, dy1, dx2, dy2);
+		}
+		buffer.append(PathBuffer.R_QUAD_TO, dx1, dy1, dx2, dy2);
 	}
 
 	@Override
 	public void offset(float dx, float dy) {
-		super.offset(dx, dy);
-		actions.add(new Offset(dx, dy));
-	}
-
-	private void perform(final Offset action) {
-		super.offset(action.x, action.y);
+		if (!deferred) {
+			super.offset(dx, dy);
+		}
+		buffer.append(PathBuffer.OFFSET, dx, dy);
 	}
 
 	/**
-	 * Unsupported.
-	 * @deprecated This method is not supported.
+	 * Offset this path into <code>dst</code>. If <code>dst</code> is a
+	 * {@link PathParcelable} it receives a copy of the recorded calls followed
+	 * by the offset.
 	 */
 	@Override
-	@Deprecated
 	public void offset(float dx, float dy, android.graphics.Path dst) {
-		throw new UnsupportedOperationException();
+		if (dst == null || dst == this) {
+			offset(dx, dy);
+		} else if (dst instanceof PathParcelable) {
+			dst.set(this);
+			dst.offset(dx, dy);
+		} else {
+			materialize();
+			super.offset(dx, dy, dst);
+		}
 	}
 
 	/**
-	 * Unsupported.
-	 * @deprecated This method is not supported.
+	 * Replace the contents of this path with <code>src</code>. The recorded
+	 * calls are shared with <code>src</code> and only copied once one of both
+	 * paths is changed, see {@link #snapshot()}.
+	 * 
+	 * @throws UnsupportedOperationException
+	 *             if <code>src</code> is not a {@link PathParcelable}.
 	 */
 	@Override
-	@Deprecated
 	public void set(android.graphics.Path src) {
-		throw new UnsupportedOperationException();
+		if (src == this) {
+			return;
+		}
+		if (!(src instanceof PathParcelable)) {
+			throw new UnsupportedOperationException("Only PathParcelable sources can be recorded");
+		}
+		final PathParcelable source = (PathParcelable) src;
+		if (source.deferred) {
+			super.reset();
+			setFillType(source.getFillType());
+		} else {
+			super.set(src);
+		}
+		buffer.set(source.buffer);
+		deferred = source.deferred;
+	}
+
+	/**
+	 * Create a copy of this path that shares the recorded calls with it, e.g.
+	 * for undo stacks. Appending to either path doesn't copy anything: the
+	 * first path to append after the snapshot extends the shared calls in
+	 * place, the other one copies its calls when it appends, as do both when
+	 * they are reset, compacted or set to another path. The native path is
+	 * copied as by {@link #set(android.graphics.Path)}, a deferred path gives
+	 * a deferred snapshot.
+	 * 
+	 * <p>
+	 * Like paths themselves, a path and its snapshots must not be changed
+	 * from different threads without synchronization.
+	 * </p>
+	 * 
+	 * @return a new path with the same calls, fill type and compression.
+	 */
+	public PathParcelable snapshot() {
+		final PathParcelable snapshot = new PathParcelable(buffer.snapshot());
+		if (deferred) {
+			snapshot.setFillType(getFillType());
+			snapshot.deferred = true;
+		} else {
+			snapshot.setNative(this);
+		}
+		snapshot.compression = compression;
+		return snapshot;
+	}
+
+	private void setNative(android.graphics.Path src) {
+		super.set(src);
 	}
 
 	@Override
 	public void reset() {
 		super.reset();
-		actions.clear();
+		buffer.clear();
+		deferred = false;
 	}
 
 	@Override
 	public void rewind() {
 		super.rewind();
-		actions.clear();
+		buffer.clear();
+		deferred = false;
 	}
 
 	/**
-	 * Unsupported.
-	 * @deprecated This method is not supported.
+	 * Replay the recorded calls onto the native path if that was deferred,
+	 * see {@link #DEFERRED_CREATOR}. The query methods of this class do this
+	 * on their own, but {@link android.graphics.Canvas#drawPath(android.graphics.Path, android.graphics.Paint)},
+	 * {@link android.graphics.PathMeasure} and other consumers of the native
+	 * path do not: call this method before handing a deferred path to them.
 	 */
-	@Override
-	@Deprecated
-	public void transform(Matrix matrix, android.graphics.Path dst) {
-		throw new UnsupportedOperationException();
+	public void materialize() {
+		if (deferred) {
+			deferred = false;
+			restoreFromParcel();
+		}
+	}
+
+	/**
+	 * @return whether the native path is in sync with the recorded calls, i.e.
+	 *         the path was not restored by {@link #DEFERRED_CREATOR} or it was
+	 *         materialized since.
+	 */
+	public boolean isMaterialized() {
+		return !deferred;
 	}
 
 	@Override
-	public void transform(Matrix matrix) {
-		super.transform(matrix);
-		this.actions.add(new MatrixTransformation(matrix));
+	public boolean isEmpty() {
+		materialize();
+		return super.isEmpty();
 	}
 
-	private void perform(final MatrixTransformation action) {
-		super.transform(action.matrix);
+	@Override
+	public boolean isRect(RectF rect) {
+		materialize();
+		return super.isRect(rect);
 	}
 
+	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
 	@Override
-	public void close() {
-		super.close();
-		this.actions.add(new Close());
+	public boolean isConvex() {
+		materialize();
+		return super.isConvex();
 	}
 
-	private void perform(final Close action) {
-		super.close();
+	@Override
+	public void computeBounds(RectF bounds, boolean exact) {
+		materialize();
+		super.computeBounds(bounds, exact);
 	}
 
+	/**
+	 * Transform this path into <code>dst</code>. If <code>dst</code> is a
+	 * {@link PathParcelable} it receives a copy of the recorded calls followed
+	 * by the transformation.
+	 */
 	@Override
-	public void setLastPoint(float dx, float dy) {
-		super.setLastPoint(dx, dy);
-		this.actions.add(new LastPoint(dx, dy));
+	public void transform(Matrix matrix, android.graphics.Path dst) {
+		if (dst == null || dst == this) {
+			transform(matrix);
+		} else if (dst instanceof PathParcelable) {
+			dst.set(this);
+			dst.transform(matrix);
+		} else {
+			materialize();
+			super.transform(matrix, dst);
+		}
 	}
 
-	private void perform(final LastPoint action) {
-		super.setLastPoint(action.x, action.y);
+	@Override
+	public void transform(Matrix matrix) {
+		if (!deferred) {
+			super.transform(matrix);
+		}
+		matrix.getValues(values);
+		final int at = buffer.append(PathBuffer.MATRIX_TRANSFORMATION);
+		System.arraycopy(values, 0, buffer.coords, at, 9);
 	}
 
 	@Override
-	public void incReserve(int extraPtCount) {
-		super.incReserve(extraPtCount);
-		//actions.ensureCapacity(actions.size() + extraPtCount);
+	public void close() {
+		if (!deferred) {
+			super.close();
+		}
+		buffer.append(PathBuffer.CLOSE);
 	}
 
 	@Override
-	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((actions == null) ? 0 : actions.hashCode());
-		result = prime * result + getFillType().hashCode();
-		return result;
+	public void setLastPoint(float dx, float dy) {
+		if (!deferred) {
+			super.setLastPoint(dx, dy);
+		}
+		buffer.append(PathBuffer.LAST_POINT, dx, dy);
 	}
 
 	@Override
-	public boolean equals(Object obj) {
-		if (this == obj) {
-			return true;
+	public void incReserve(int extraPtCount) {
+		if (!deferred) {
+			super.incReserve(extraPtCount);
 		}
-		if (obj == null) {
-			return false;
+		buffer.ensureCapacity(extraPtCount, extraPtCount * 2);
+	}
+
+	/**
+	 * Compute the bounds of this path from the recorded calls, without
+	 * touching the native path. The bounds are kept up to date as calls are
+	 * recorded, so this is cheap to call repeatedly. Like
+	 * {@link #computeBounds(RectF, boolean)}, curves are bounded by their
+	 * control points, arcs are bounded by their whole oval, so the bounds may
+	 * be larger than the exact ones.
+	 * 
+	 * <p>
+	 * Paths with perspective transformations, and paths with relative calls
+	 * following a circle, oval or rounded rectangle, fall back to
+	 * {@link #computeBounds(RectF, boolean)}.
+	 * </p>
+	 * 
+	 * @param bounds
+	 *            receives the bounds.
+	 */
+	public void computeFastBounds(RectF bounds) {
+		if (updateFastBounds()) {
+			fastBounds.get(bounds);
+		} else {
+			computeBounds(bounds, true);
 		}
-		if (!(obj instanceof PathParcelable)) {
-			return false;
+	}
+
+	/**
+	 * Like {@link #computeFastBounds(RectF)}, but writes left, top, right and
+	 * bottom to <code>dst</code>, starting at <code>offset</code>.
+	 */
+	void computeFastBounds(float[] dst, int offset) {
+		if (updateFastBounds()) {
+			fastBounds.get(dst, offset);
+		} else {
+			final RectF bounds = new RectF();
+			computeBounds(bounds, true);
+			dst[offset] = bounds.left;
+			dst[offset + 1] = bounds.top;
+			dst[offset + 2] = bounds.right;
+			dst[offset + 3] = bounds.bottom;
 		}
-		PathParcelable other = (PathParcelable) obj;
-		if (actions == null) {
-			if (other.actions != null) {
-				return false;
-			}
-		} else if (!actions.equals(other.actions)) {
-			return false;
+	}
+
+	private boolean updateFastBounds() {
+		if (fastBounds == null) {
+			fastBounds = new PathBounds();
 		}
+		return fastBounds.update(buffer);
+	}
 
-		if (getFillType() != other.getFillType()) {
+	/**
+	 * Check whether a point hits the outline of this path, e.g. for touch
+	 * handling on strokes. The first call builds an index of the flattened
+	 * segments of this path, which is kept until the path is changed, so the
+	 * following calls only test the segments near the point. Points outside
+	 * of {@link #computeFastBounds(RectF)} are rejected without the index.
+	 * 
+	 * @param radius
+	 *            the maximum distance of the point from the outline, e.g. half
+	 *            the stroke width plus a touch slop.
+	 * @return whether the point is within <code>radius</code> of a segment.
+	 */
+	public boolean hitTest(float x, float y, float radius) {
+		if (buffer.verbCount == 0 || updateFastBounds() && !fastBounds.contains(x, y, radius)) {
 			return false;
 		}
-
-		return true;
+		return segmentIndex().hitTest(x, y, radius);
 	}
 
-	@Override
-	public int describeContents() {
-		return 0;
+	/**
+	 * Check whether a point is inside the area filled by this path according
+	 * to its fill type, like a {@link android.graphics.Region} set to this path
+	 * would, but without rasterizing it. Uses the index described at
+	 * {@link #hitTest(float, float, float)}.
+	 */
+	public boolean contains(float x, float y) {
+		if (!isInverseFillType() && updateFastBounds() && !fastBounds.contains(x, y, 0)) {
+			return false;
+		}
+		return segmentIndex().contains(x, y, getFillType());
 	}
 
-	@Override
-	public void writeToParcel(Parcel dest, int flags) {
-		dest.writeInt(actions.size());
-		dest.writeArray(actions.toArray(new PathAction[actions.size()]));
-		dest.writeString(getFillType().name());
+	/**
+	 * @return the squared distance of the point from the outline, or
+	 *         <code>limit</code> if the outline is further away.
+	 */
+	float distanceSquared(float x, float y, float limit) {
+		if (buffer.verbCount == 0) {
+			return limit;
+		}
+		return segmentIndex().distanceSquared(x, y, limit);
 	}
 
-	public static final Parcelable.Creator<PathParcelable> CREATOR = new Parcelable.Creator<PathParcelable>() {
-		public PathParcelable createFromParcel(Parcel in) {
-			return new PathParcelable(in);
+	private PathSegmentIndex segmentIndex() {
+		PathSegmentIndex index = segmentIndex;
+		if (index == null || !index.polyline.isFlattened(buffer, HIT_TOLERANCE)) {
+			index = new PathSegmentIndex(flatten(HIT_TOLERANCE));
+			segmentIndex = index;
 		}
+		return index;
+	}
 
-		public PathParcelable[] newArray(int size) {
-			return new PathParcelable[size];
+	/**
+	 * Flatten the curves, arcs and shapes of this path to polylines, e.g. for
+	 * collision detection or for positions along the path through
+	 * {@link PathPolyline#getPosTan(float, float[], float[])}. The polylines of the last
+	 * {@value #FLATTEN_CACHE_SIZE} tolerances are cached until calls are
+	 * recorded or the path is changed otherwise, so repeated calls with the
+	 * same tolerance are cheap.
+	 * 
+	 * <p>
+	 * Offsets and transformations are applied to the flattened points, so
+	 * scaling transformations scale the deviation from the curves as well.
+	 * </p>
+	 * 
+	 * @param tolerance
+	 *            the maximum distance of the polylines from the curves, in
+	 *            pixels.
+	 * @return the immutable, possibly shared, polylines.
+	 */
+	public PathPolyline flatten(float tolerance) {
+		if (!(tolerance > 0) || Float.isInfinite(tolerance)) {
+			throw new IllegalArgumentException("Invalid tolerance " + tolerance);
+		}
+		if (flattened == null) {
+			flattened = new PathPolyline[FLATTEN_CACHE_SIZE];
 		}
-	};
 
-	private void restoreFromParcel() {
-		for (PathAction action : actions) {
-			switch (action.getType()) {
-			case MOVE_TO:
-				perform((MoveTo) action);
-				break;
-
-			case R_MOVE_TO:
-				perform((RMoveTo) action);
-				break;
-
-			case LINE_TO:
-				perform((LineTo) action);
-				break;
-
-			case R_LINE_TO:
-				perform((RLineTo) action);
-				break;
-
-			case CUPIC_TO:
-				perform((CubicTo) action);
-				break;
-
-			case R_CUBIC_TO:
-				perform((RCubicTo) action);
-				break;
-
-			case ARC_TO:
-				perform((ArcTo) action);
-				break;
-
-			case QUAD_TO:
-				perform((QuadTo) action);
-				break;
-
-			case R_QUAD_TO:
-				perform((RQuadTo) action);
-				break;
-
-			case ADD_ARC:
-				perform((AddArc) action);
-				break;
-
-			case ADD_CIRCLE:
-				perform((AddCircle) action);
-				break;
-
-			case ADD_OVAL:
-				perform((AddOval) action);
-				break;
-
-			case ADD_RECT:
-				perform((AddRect) action);
-				break;
-
-			case ADD_ROUNDED_RECT:
-				perform((AddRoundedRect) action);
-				break;
-
-			case ADD_ROUNDED_RECT_CORNERS:
-				perform((AddRoundedRectCorners) action);
-				break;
-
-			case OFFSET:
-				perform((Offset) action);
-				break;
-
-			case MATRIX_TRANSFORMATION:
-				perform((MatrixTransformation) action);
-				break;
-
-			case CLOSE:
-				perform((Close) action);
-				break;
-
-			case LAST_POINT:
-				perform((LastPoint) action);
-				break;
-			}
-		}
-	}
-
-	private static enum ActionType {
-		LINE_TO,
-		MOVE_TO,
-		CUPIC_TO,
-		ARC_TO,
-		QUAD_TO,
-		R_CUBIC_TO,
-		R_QUAD_TO,
-		R_LINE_TO,
-		R_MOVE_TO,
-		ADD_ARC,
-		ADD_CIRCLE,
-		ADD_OVAL,
-		ADD_RECT,
-		ADD_ROUNDED_RECT,
-		ADD_ROUNDED_RECT_CORNERS,
-		OFFSET,
-		MATRIX_TRANSFORMATION,
-		CLOSE,
-		LAST_POINT;
-	};
-
-	private static abstract class PathAction implements Parcelable {
-
-		public abstract ActionType getType();
-
-		@Override
-		public int describeContents() {
-			return getType().ordinal();
-		}
-
-		@Override
-		public boolean equals(Object other) {
-			if (other == null) {
-				return false;
-			}
-
-			if (!(other instanceof PathAction)) {
-				return false;
-			}
-
-			return this.getType() == ((PathAction) other).getType();
+		// find the entry of the tolerance, the first empty or the last entry
+		int i = 0;
+		while (i < FLATTEN_CACHE_SIZE - 1 && flattened[i] != null && flattened[i].tolerance != tolerance) {
+			i++;
 		}
-
-		@Override
-		public int hashCode() {
-			return 31 + getType().hashCode();
+		PathPolyline polyline = flattened[i];
+		if (polyline == null || !polyline.isFlattened(buffer, tolerance)) {
+			polyline = PathFlattener.flatten(buffer, tolerance);
 		}
+		System.arraycopy(flattened, 0, flattened, 1, i);
+		flattened[0] = polyline;
+		return polyline;
 	}
 
-	private static class AddArc extends ArcTo {
-
-		public AddArc(final RectF oval, float startAngle, float sweepAngle) {
-			super(oval, startAngle, sweepAngle, false);
-		}
-
-		public AddArc(Parcel in) {
-			super(in);
-		}
-
-		@Override
-		public ActionType getType() {
-			return ActionType.ADD_ARC;
-		}
-
-		@SuppressWarnings("unused")
-		public static final Parcelable.Creator<AddArc> CREATOR = new Parcelable.Creator<AddArc>() {
-			public AddArc createFromParcel(Parcel in) {
-				return new AddArc(in);
-			}
-
-			public AddArc[] newArray(int size) {
-				return new AddArc[size];
-			}
-		};
+	/**
+	 * Merge or drop recorded calls that don't contribute to the geometry of
+	 * this path, so it parcels, persists and restores faster:
+	 * <ul>
+	 * <li>consecutive <code>moveTo</code>/<code>rMoveTo</code> calls are
+	 * merged into one <code>moveTo</code>,</li>
+	 * <li>zero length <code>lineTo</code>/<code>rLineTo</code> calls following
+	 * another line are dropped,</li>
+	 * <li>consecutive <code>offset</code> calls are summed up,</li>
+	 * <li>consecutive affine <code>transform</code> calls are concatenated,</li>
+	 * <li>zero offsets and identity transformations are dropped.</li>
+	 * </ul>
+	 * The native path is left as it is, since it describes the same geometry.
+	 * 
+	 * @return the number of dropped calls.
+	 */
+	public int compact() {
+		return buffer.compact();
 	}
 
-	private static class AddCircle extends AddDirectionalFigure {
-
-		public final float x, y;
-		public final float radius;
-
-		public AddCircle(float x, float y, float radius, Direction dir) {
-			super(dir);
-			this.x = x;
-			this.y = y;
-			this.radius = radius;
-
-		}
-
-		public AddCircle(Parcel in) {
-			super(in);
-			this.x = in.readFloat();
-			this.y = in.readFloat();
-			this.radius = in.readFloat();
-		}
-
-		@Override
-		public ActionType getType() {
-			return ActionType.ADD_CIRCLE;
-		}
-
-		@Override
-		public void writeToParcel(Parcel dest, int flags) {
-			super.writeToParcel(dest, flags);
-			dest.writeFloat(x);
-			dest.writeFloat(y);
-			dest.writeFloat(radius);
-		}
-
-		@SuppressWarnings("unused")
-		public static final Parcelable.Creator<AddCircle> CREATOR = new Parcelable.Creator<AddCircle>() {
-			public AddCircle createFromParcel(Parcel in) {
-				return new AddCircle(in);
-			}
-
-			public AddCircle[] newArray(int size) {
-				return new AddCircle[size];
-			}
-		};
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = super.hashCode();
-			result = prime * result + Float.floatToIntBits(radius);
-			result = prime * result + Float.floatToIntBits(x);
-			result = prime * result + Float.floatToIntBits(y);
-			return result;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj) {
-				return true;
-			}
-			if (!super.equals(obj)) {
-				return false;
-			}
-			if (!(obj instanceof AddCircle)) {
-				return false;
-			}
-			AddCircle other = (AddCircle) obj;
-			if (Float.floatToIntBits(radius) != Float.floatToIntBits(other.radius)) {
-				return false;
-			}
-			if (Float.floatToIntBits(x) != Float.floatToIntBits(other.x)) {
-				return false;
-			}
-			if (Float.floatToIntBits(y) != Float.floatToIntBits(other.y)) {
-				return false;
-			}
-			return true;
+	/**
+	 * Create a simplified copy of this path. Runs of <code>lineTo</code> calls,
+	 * e.g. strokes recorded from touch input, are decimated with the
+	 * Douglas-Peucker algorithm: a point is dropped if it is no further than
+	 * <code>tolerance</code> away from the simplified polyline. All other
+	 * calls are copied unchanged.
+	 * 
+	 * @param tolerance
+	 *            the maximum deviation in pixels, <code>0</code> drops
+	 *            collinear points only.
+	 * @return a new, usually much smaller, path. This path is not changed.
+	 */
+	public PathParcelable simplify(float tolerance) {
+		if (!(tolerance >= 0) || Float.isInfinite(tolerance)) {
+			throw new IllegalArgumentException("Invalid tolerance " + tolerance);
 		}
+		final PathParcelable simplified = new PathParcelable(PathSimplifier.simplify(buffer, tolerance));
+		simplified.setFillType(getFillType());
+		simplified.compression = compression;
+		simplified.restoreFromParcel();
+		return simplified;
 	}
 
-	private static abstract class AddDirectionalFigure extends PathAction {
-
-		public final Direction dir;
-
-		public AddDirectionalFigure(Direction dir) {
-			this.dir = dir;
-		}
-
-		public AddDirectionalFigure(Parcel in) {
-			this(Direction.valueOf(in.readString()));
-		}
-
-		@Override
-		public void writeToParcel(Parcel dest, int flags) {
-			dest.writeString(dir.name());
-		}
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = super.hashCode();
-			result = prime * result + ((dir == null) ? 0 : dir.hashCode());
-			return result;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj) {
-				return true;
-			}
-			if (!super.equals(obj)) {
-				return false;
-			}
-			if (!(obj instanceof AddDirectionalFigure)) {
-				return false;
-			}
-			AddDirectionalFigure other = (AddDirectionalFigure) obj;
-			if (dir != other.dir) {
-				return false;
-			}
-			return true;
+	/**
+	 * Enable the compressed encoding for {@link #writeToParcel(Parcel, int)}
+	 * and {@link #writeToPersist(DataOutput)}. Coordinates are rounded to
+	 * multiples of <code>step</code>, delta coded and packed as varints, which
+	 * shrinks paths recorded from touch input considerably. Angles, directions
+	 * and matrix values are written unchanged.
+	 * 
+	 * <p>
+	 * The encoding is lossy: every point of a restored path is within half a
+	 * step of its position in this path, per coordinate and after the affine
+	 * transformations recorded later. Relative calls don't add up their
+	 * rounding errors. Points moved by later calls to
+	 * {@link #offset(float, float)} may be off by up to a step, points relative
+	 * to the end of an oval, a circle or a rounded rectangle additionally by
+	 * the rounding of that shape.
+	 * </p>
+	 * 
+	 * @param step
+	 *            the quantization step, e.g. <code>0.1f</code> for a tenth of
+	 *            a pixel, or <code>0</code> to write exact floats (the
+	 *            default).
+	 */
+	public void setCompression(float step) {
+		if (step < 0 || Float.isNaN(step) || Float.isInfinite(step)) {
+			throw new IllegalArgumentException("Invalid quantization step " + step);
 		}
+		this.compression = step;
 	}
 
-	private static class AddOval extends AddDirectionalFigure {
-
-		public final RectF oval;
-
-		public AddOval(RectF oval, Direction dir) {
-			super(dir);
-			this.oval = oval;
-		}
-
-		public AddOval(Parcel in) {
-			super(in);
-			this.oval = (RectF) in.readParcelable(null);
-		}
-
-		@Override
-		public ActionType getType() {
-			return ActionType.ADD_OVAL;
-		}
-
-		@Override
-		public void writeToParcel(Parcel dest, int flags) {
-			super.writeToParcel(dest, flags);
-			dest.writeParcelable(oval, flags);
-		}
-
-		@SuppressWarnings("unused")
-		public static final Parcelable.Creator<AddOval> CREATOR = new Parcelable.Creator<AddOval>() {
-			public AddOval createFromParcel(Parcel in) {
-				return new AddOval(in);
-			}
-
-			public AddOval[] newArray(int size) {
-				return new AddOval[size];
-			}
-		};
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = super.hashCode();
-			result = prime * result + ((oval == null) ? 0 : oval.hashCode());
-			return result;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj) {
-				return true;
-			}
-			if (!super.equals(obj)) {
-				return false;
-			}
-			if (!(obj instanceof AddOval)) {
-				return false;
-			}
-			AddOval other = (AddOval) obj;
-			if (oval == null) {
-				if (other.oval != null) {
-					return false;
-				}
-			} else if (!oval.equals(other.oval)) {
-				return false;
-			}
-			return true;
-		}
+	/**
+	 * @return the quantization step set by {@link #setCompression(float)}, or
+	 *         <code>0</code> if paths are written exactly.
+	 */
+	public float getCompression() {
+		return compression;
 	}
 
-	private static class AddRect extends AddDirectionalFigure {
-
-		public final RectF rect;
-
-		public AddRect(RectF rect, Direction dir) {
-			super(dir);
-			this.rect = rect;
-		}
-
-		public AddRect(float left, float top, float right, float bottom, Direction dir) {
-			this(new RectF(left, top, right, bottom), dir);
-		}
-
-		public AddRect(Parcel in) {
-			super(in);
-			this.rect = (RectF) in.readParcelable(null);
-		}
-
-		@Override
-		public ActionType getType() {
-			return ActionType.ADD_RECT;
-		}
-
-		@Override
-		public void writeToParcel(Parcel dest, int flags) {
-			super.writeToParcel(dest, flags);
-			dest.writeParcelable(rect, flags);
-		}
-
-		@SuppressWarnings("unused")
-		public static final Parcelable.Creator<AddRect> CREATOR = new Parcelable.Creator<AddRect>() {
-			public AddRect createFromParcel(Parcel in) {
-				return new AddRect(in);
-			}
-
-			public AddRect[] newArray(int size) {
-				return new AddRect[size];
-			}
-		};
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = super.hashCode();
-			result = prime * result + ((rect == null) ? 0 : rect.hashCode());
-			return result;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj) {
-				return true;
-			}
-			if (!super.equals(obj)) {
-				return false;
-			}
-			if (!(obj instanceof AddRect)) {
-				return false;
-			}
-			AddRect other = (AddRect) obj;
-			if (rect == null) {
-				if (other.rect != null) {
-					return false;
-				}
-			} else if (!rect.equals(other.rect)) {
-				return false;
-			}
-			return true;
-		}
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + buffer.hashCode();
+		result = prime * result + getFillType().ordinal();
+		return result;
 	}
 
-	private static class AddRoundedRect extends AddRect {
-
-		public final float rx, ry;
-
-		public AddRoundedRect(RectF rect, float rx, float ry, Direction dir) {
-			super(rect, dir);
-			this.rx = rx;
-			this.ry = ry;
-		}
-
-		public AddRoundedRect(Parcel in) {
-			super(in);
-			this.rx = in.readFloat();
-			this.ry = in.readFloat();
-		}
-
-		@Override
-		public ActionType getType() {
-			return ActionType.ADD_ROUNDED_RECT;
-		}
-
-		@Override
-		public void writeToParcel(Parcel dest, int flags) {
-			super.writeToParcel(dest, flags);
-			dest.writeFloat(rx);
-			dest.writeFloat(ry);
-		}
-
-		@SuppressWarnings("unused")
-		public static final Parcelable.Creator<AddRoundedRect> CREATOR = new Parcelable.Creator<AddRoundedRect>() {
-			public AddRoundedRect createFromParcel(Parcel in) {
-				return new AddRoundedRect(in);
-			}
-
-			public AddRoundedRect[] newArray(int size) {
-				return new AddRoundedRect[size];
-			}
-		};
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = super.hashCode();
-			result = prime * result + Float.floatToIntBits(rx);
-			result = prime * result + Float.floatToIntBits(ry);
-			return result;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj) {
-				return true;
-			}
-			if (!super.equals(obj)) {
-				return false;
-			}
-			if (!(obj instanceof AddRoundedRect)) {
-				return false;
-			}
-			AddRoundedRect other = (AddRoundedRect) obj;
-			if (Float.floatToIntBits(rx) != Float.floatToIntBits(other.rx)) {
-				return false;
-			}
-			if (Float.floatToIntBits(ry) != Float.floatToIntBits(other.ry)) {
-				return false;
-			}
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
 			return true;
 		}
-	}
-
-	private static class AddRoundedRectCorners extends AddRect {
-
-		public final float[] radii;
-
-		public AddRoundedRectCorners(RectF rect, float[] radii, Direction dir) {
-			super(rect, dir);
-			this.radii = radii;
-		}
-
-		public AddRoundedRectCorners(Parcel in) {
-			super(in);
-			this.radii = new float[8];
-			in.readFloatArray(this.radii);
+		if (obj == null) {
+			return false;
 		}
-
-		@Override
-		public ActionType getType() {
-			return ActionType.ADD_ROUNDED_RECT_CORNERS;
+		if (!(obj instanceof PathParcelable)) {
+			return false;
 		}
-
-		@Override
-		public void writeToParcel(Parcel dest, int flags) {
-			super.writeToParcel(dest, flags);
-			dest.writeFloatArray(this.radii);
+		PathParcelable other = (PathParcelable) obj;
+		if (getFillType() != other.getFillType()) {
+			return false;
 		}
 
-		@SuppressWarnings("unused")
-		public static final Parcelable.Creator<AddRoundedRectCorners> CREATOR = new Parcelable.Creator<AddRoundedRectCorners>() {
-			public AddRoundedRectCorners createFromParcel(Parcel in) {
-				return new AddRoundedRectCorners(in);
-			}
-
-			public AddRoundedRectCorners[] newArray(int size) {
-				return new AddRoundedRectCorners[size];
-			}
-		};
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = super.hashCode();
-			result = prime * result + Arrays.hashCode(radii);
-			return result;
+		if (!buffer.equals(other.buffer)) {
+			return false;
 		}
 
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj) {
-				return true;
-			}
-			if (!super.equals(obj)) {
-				return false;
-			}
-			if (!(obj instanceof AddRoundedRectCorners)) {
-				return false;
-			}
-			AddRoundedRectCorners other = (AddRoundedRectCorners) obj;
-			if (!Arrays.equals(radii, other.radii)) {
-				return false;
-			}
-			return true;
-		}
+		return true;
 	}
 
-	private static class ArcTo extends PathAction {
-
-		public final RectF oval;
-		public final float startAngle, sweepAngle;
-		public final boolean forceMoveTo;
-
-		public ArcTo(RectF oval, float startAngle, float sweepAngle, boolean forceMoveTo) {
-			this.oval = oval;
-			this.startAngle = startAngle;
-			this.sweepAngle = sweepAngle;
-			this.forceMoveTo = forceMoveTo;
-		}
-
-		public ArcTo(Parcel in) {
-			this.oval = (RectF) in.readParcelable(null);
-			this.startAngle = in.readFloat();
-			this.sweepAngle = in.readFloat();
-			this.forceMoveTo = in.readInt() == 1;
-		}
-
-		@Override
-		public ActionType getType() {
-			return ActionType.ARC_TO;
-		}
-
-		@Override
-		public void writeToParcel(Parcel dest, int flags) {
-			dest.writeParcelable(oval, flags);
-			dest.writeFloat(startAngle);
-			dest.writeFloat(sweepAngle);
-			dest.writeInt(forceMoveTo ? 1 : 0);
-		}
-
-		@SuppressWarnings("unused")
-		public static final Parcelable.Creator<ArcTo> CREATOR = new Parcelable.Creator<ArcTo>() {
-			public ArcTo createFromParcel(Parcel in) {
-				return new ArcTo(in);
-			}
-
-			public ArcTo[] newArray(int size) {
-				return new ArcTo[size];
-			}
-		};
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = super.hashCode();
-			result = prime * result + (forceMoveTo ? 1231 : 1237);
-			result = prime * result + ((oval == null) ? 0 : oval.hashCode());
-			result = prime * result + Float.floatToIntBits(startAngle);
-			result = prime * result + Float.floatToIntBits(sweepAngle);
-			return result;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj) {
-				return true;
-			}
-			if (!super.equals(obj)) {
-				return false;
-			}
-			if (!(obj instanceof ArcTo)) {
-				return false;
-			}
-			ArcTo other = (ArcTo) obj;
-			if (forceMoveTo != other.forceMoveTo) {
-				return false;
-			}
-			if (oval == null) {
-				if (other.oval != null) {
-					return false;
-				}
-			} else if (!oval.equals(other.oval)) {
-				return false;
-			}
-			if (Float.floatToIntBits(startAngle) != Float.floatToIntBits(other.startAngle)) {
-				return false;
-			}
-			if (Float.floatToIntBits(sweepAngle) != Float.floatToIntBits(other.sweepAngle)) {
-				return false;
-			}
-			return true;
-		}
+	/**
+	 * @return {@link android.os.Parcelable#CONTENTS_FILE_DESCRIPTOR} if this path is
+	 *         large enough to be parceled through a file, see
+	 *         {@link #setParcelFileTransport(File, int)}. Such parcels can't
+	 *         be put into intents, but can be passed to services and content
+	 *         providers.
+	 */
+	@Override
+	public int describeContents() {
+		return parcelFile() != null ? CONTENTS_FILE_DESCRIPTOR : 0;
 	}
 
-	private static class QuadTo extends PathAction {
-
-		public final float x1, y1, x2, y2;
-
-		public QuadTo(float x1, float y1, float x2, float y2) {
-			this.x1 = x1;
-			this.y1 = y1;
-			this.x2 = x2;
-			this.y2 = y2;
-		}
-
-		public QuadTo(Parcel in) {
-			this.x1 = in.readFloat();
-			this.y1 = in.readFloat();
-			this.x2 = in.readFloat();
-			this.y2 = in.readFloat();
-		}
-
-		@Override
-		public ActionType getType() {
-			return ActionType.QUAD_TO;
-		}
-
-		@Override
-		public void writeToParcel(Parcel dest, int flags) {
-			dest.writeFloat(x1);
-			dest.writeFloat(y1);
-			dest.writeFloat(x2);
-			dest.writeFloat(y2);
-		}
-
-		@SuppressWarnings("unused")
-		public static final Parcelable.Creator<QuadTo> CREATOR = new Parcelable.Creator<QuadTo>() {
-			public QuadTo createFromParcel(Parcel in) {
-				return new QuadTo(in);
-			}
-
-			public QuadTo[] newArray(int size) {
-				return new QuadTo[size];
-			}
-		};
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = super.hashCode();
-			result = prime * result + Float.floatToIntBits(x1);
-			result = prime * result + Float.floatToIntBits(x2);
-			result = prime * result + Float.floatToIntBits(y1);
-			result = prime * result + Float.floatToIntBits(y2);
-			return result;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj) {
-				return true;
-			}
-			if (!super.equals(obj)) {
-				return false;
-			}
-			if (!(obj instanceof QuadTo)) {
-				return false;
-			}
-			QuadTo other = (QuadTo) obj;
-			if (Float.floatToIntBits(x1) != Float.floatToIntBits(other.x1)) {
-				return false;
-			}
-			if (Float.floatToIntBits(x2) != Float.floatToIntBits(other.x2)) {
-				return false;
-			}
-			if (Float.floatToIntBits(y1) != Float.floatToIntBits(other.y1)) {
-				return false;
-			}
-			if (Float.floatToIntBits(y2) != Float.floatToIntBits(other.y2)) {
-				return false;
-			}
-			return true;
+	/**
+	 * @return the directory to write this path to when parceled, or
+	 *         <code>null</code> if it is parceled inline.
+	 */
+	private File parcelFile() {
+		final File directory = parcelFileDirectory;
+		if (directory != null && PathFileTransport.exceeds(buffer, parcelFileThreshold)) {
+			return directory;
 		}
+		return null;
 	}
 
-	private static class CubicTo extends QuadTo {
-
-		public final float x3, y3;
-
-		public CubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
-			super(x1, y1, x2, y2);
-			this.x3 = x3;
-			this.y3 = y3;
-		}
-
-		public CubicTo(Parcel in) {
-			super(in);
-			this.x3 = in.readFloat();
-			this.y3 = in.readFloat();
-		}
-
-		@Override
-		public ActionType getType() {
-			return ActionType.CUPIC_TO;
-		}
-
-		@Override
-		public void writeToParcel(Parcel dest, int flags) {
-			super.writeToParcel(dest, flags);
-			dest.writeFloat(x3);
-			dest.writeFloat(y3);
-		}
-
-		@SuppressWarnings("unused")
-		public static final Parcelable.Creator<CubicTo> CREATOR = new Parcelable.Creator<CubicTo>() {
-			public CubicTo createFromParcel(Parcel in) {
-				return new CubicTo(in);
-			}
-
-			public CubicTo[] newArray(int size) {
-				return new CubicTo[size];
+	@Override
+	public void writeToParcel(Parcel dest, int flags) {
+		final File directory = parcelFile();
+		if (directory != null) {
+			final ParcelFileDescriptor fd = writeToFile(directory);
+			if (fd != null) {
+				try {
+					dest.writeByte(PARCEL_VERSION_FILE);
+					// the parcel duplicates the descriptor
+					dest.writeFileDescriptor(fd.getFileDescriptor());
+				} finally {
+					try {
+						fd.close();
+					} catch (IOException e) {
+						Log.w(TAG, "Failed to close parcel file", e);
+					}
+				}
+				dest.writeInt(getFillType().ordinal());
+				return;
 			}
-		};
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = super.hashCode();
-			result = prime * result + Float.floatToIntBits(x3);
-			result = prime * result + Float.floatToIntBits(y3);
-			return result;
 		}
 
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj) {
-				return true;
-			}
-			if (!super.equals(obj)) {
-				return false;
-			}
-			if (!(obj instanceof CubicTo)) {
-				return false;
-			}
-			CubicTo other = (CubicTo) obj;
-			if (Float.floatToIntBits(x3) != Float.floatToIntBits(other.x3)) {
-				return false;
-			}
-			if (Float.floatToIntBits(y3) != Float.floatToIntBits(other.y3)) {
-				return false;
+		if (compression > 0) {
+			dest.writeByte(PARCEL_VERSION_COMPRESSED);
+			dest.writeFloat(compression);
+			dest.writeByteArray(buffer.verbs, 0, buffer.verbCount);
+			dest.writeByteArray(PathCompression.encode(buffer, compression));
+		} else {
+			dest.writeByte(PARCEL_VERSION);
+			dest.writeByteArray(buffer.verbs, 0, buffer.verbCount);
+			// the layout of writeFloatArray(), without copying the used part
+			final float[] coords = buffer.coords;
+			final int coordCount = buffer.coordCount;
+			dest.writeInt(coordCount);
+			for (int i = 0; i < coordCount; i++) {
+				dest.writeFloat(coords[i]);
 			}
-			return true;
 		}
-
+		dest.writeInt(getFillType().ordinal());
 	}
 
-	private static class LineTo extends MoveTo {
-
-		public LineTo(float x, float y) {
-			super(x, y);
-		}
+	/**
+	 * Write the recorded calls to a new file in the given directory, which is
+	 * deleted right away, so it is gone once the last descriptor is closed.
+	 * 
+	 * @return a read only descriptor of the file, or <code>null</code> if it
+	 *         couldn't be written.
+	 */
+	private ParcelFileDescriptor writeToFile(File directory) {
+		return PathFileTransport.write(directory, buffer, compression, PARCEL_FILE_OPENER);
+	}
 
-		public LineTo(Parcel in) {
-			super(in);
-		}
+	@Override
+	public void writeToPersist(DataOutput output) throws IOException {
+		writeBuffer(buffer, compression, output);
+		output.writeByte(getFillType().ordinal());
+	}
 
-		@Override
-		public ActionType getType() {
-			return ActionType.LINE_TO;
+	/**
+	 * Write recorded calls in the layout of
+	 * {@link #writeToPersist(DataOutput)}, without the fill type.
+	 * 
+	 * @param compression
+	 *            the quantization step, see {@link #setCompression(float)}.
+	 */
+	static void writeBuffer(PathBuffer buffer, float compression, DataOutput output) throws IOException {
+		if (compression > 0) {
+			final byte[] packed = PathCompression.encode(buffer, compression);
+			output.writeByte(PERSIST_VERSION_COMPRESSED);
+			output.writeFloat(compression);
+			output.writeInt(buffer.verbCount);
+			output.write(buffer.verbs, 0, buffer.verbCount);
+			output.writeInt(packed.length);
+			output.write(packed);
+		} else {
+			output.writeByte(PERSIST_VERSION);
+			buffer.writeTo(output);
 		}
-
-		@SuppressWarnings("unused")
-		public static final Parcelable.Creator<LineTo> CREATOR = new Parcelable.Creator<LineTo>() {
-			public LineTo createFromParcel(Parcel in) {
-				return new LineTo(in);
-			}
-
-			public LineTo[] newArray(int size) {
-				return new LineTo[size];
-			}
-		};
 	}
 
-	private static class MoveTo extends PathAction {
-
-		public final float x, y;
+	/**
+	 * @return a checkpoint of the recorded calls, to pass to
+	 *         {@link #writeDeltaToParcel(Parcel, long)} later on.
+	 */
+	public long checkpoint() {
+		return (long) buffer.revision << 32 | buffer.verbCount;
+	}
 
-		public MoveTo(float x, float y) {
-			this.x = x;
-			this.y = y;
-		}
+	/**
+	 * Write the calls recorded since a checkpoint, e.g. to send the growing
+	 * stroke of a live drawing to another process. The receiving path, which
+	 * has to hold the calls up to the checkpoint, appends them by
+	 * {@link #applyDelta(Parcel)}. The size of the delta only depends on the
+	 * calls appended since the checkpoint.
+	 * 
+	 * <p>
+	 * If the calls were changed other than by appending since the checkpoint,
+	 * i.e. the path was reset, compacted or set to another path, the delta
+	 * holds all calls and replaces those of the receiving path. Coordinates
+	 * are always written exactly, regardless of {@link #setCompression(float)}.
+	 * </p>
+	 * 
+	 * <pre>
+	 * long sent = stroke.checkpoint();
+	 * stroke.writeToParcel(parcel, 0);
+	 * ...
+	 * sent = stroke.writeDeltaToParcel(parcel, sent);
+	 * </pre>
+	 * 
+	 * @param since
+	 *            a checkpoint of this path, see {@link #checkpoint()}.
+	 * @return the checkpoint after the written calls.
+	 */
+	public long writeDeltaToParcel(Parcel dest, long since) {
+		final int sinceVerbs = (int) since;
+		final boolean replace = (int) (since >>> 32) != buffer.revision || sinceVerbs < 0
+				|| sinceVerbs > buffer.verbCount;
+		final int firstVerb = replace ? 0 : sinceVerbs;
+		final byte[] verbs = buffer.verbs;
+		final float[] coords = buffer.coords;
+		final int coordCount = buffer.coordCount;
+		int firstCoord = coordCount;
+		for (int i = firstVerb; i < buffer.verbCount; i++) {
+			firstCoord -= PathBuffer.arguments(verbs[i]);
+		}
+
+		dest.writeByte(DELTA_VERSION);
+		dest.writeByte((byte) (replace ? 1 : 0));
+		dest.writeInt(firstVerb);
+		dest.writeInt(firstCoord);
+		dest.writeByteArray(verbs, firstVerb, buffer.verbCount - firstVerb);
+		dest.writeInt(coordCount - firstCoord);
+		for (int i = firstCoord; i < coordCount; i++) {
+			dest.writeFloat(coords[i]);
+		}
+		dest.writeInt(getFillType().ordinal());
+		return checkpoint();
+	}
 
-		public MoveTo(Parcel in) {
-			this.x = in.readFloat();
-			this.y = in.readFloat();
+	/**
+	 * Append the calls written by {@link #writeDeltaToParcel(Parcel, long)},
+	 * or replace the recorded calls if the delta holds all calls of the
+	 * sending path. Only the appended calls are replayed onto the native path.
+	 * 
+	 * @throws BadParcelableException
+	 *             if the delta is malformed, or if this path doesn't hold as
+	 *             many calls as the sending path did at the checkpoint.
+	 */
+	public void applyDelta(Parcel in) {
+		final byte version = in.readByte();
+		if (version != DELTA_VERSION) {
+			throw new BadParcelableException("Unsupported PathParcelable delta version " + version);
 		}
-
-		@Override
-		public ActionType getType() {
-			return ActionType.MOVE_TO;
+		final boolean replace = in.readByte() != 0;
+		final int firstVerb = in.readInt();
+		final int firstCoord = in.readInt();
+		final byte[] verbs = in.createByteArray();
+		final float[] coords = in.createFloatArray();
+		final int fillType = in.readInt();
+		if (verbs == null || coords == null || fillType < 0 || fillType >= FILL_TYPES.length) {
+			throw new BadParcelableException("Malformed PathParcelable delta");
 		}
-
-		@Override
-		public void writeToParcel(Parcel dest, int flags) {
-			dest.writeFloat(x);
-			dest.writeFloat(y);
+		if (!replace && (firstVerb != buffer.verbCount || firstCoord != buffer.coordCount)) {
+			throw new BadParcelableException("PathParcelable delta after " + firstVerb
+					+ " calls doesn't apply to a path of " + buffer.verbCount + " calls");
 		}
+		validate(verbs, verbs.length, coords, coords.length);
 
-		@SuppressWarnings("unused")
-		public static final Parcelable.Creator<MoveTo> CREATOR = new Parcelable.Creator<MoveTo>() {
-			public MoveTo createFromParcel(Parcel in) {
-				return new MoveTo(in);
-			}
-
-			public MoveTo[] newArray(int size) {
-				return new MoveTo[size];
-			}
-		};
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = super.hashCode();
-			result = prime * result + Float.floatToIntBits(x);
-			result = prime * result + Float.floatToIntBits(y);
-			return result;
+		if (replace) {
+			super.rewind();
+			buffer.clear();
 		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj) {
-				return true;
-			}
-			if (!super.equals(obj)) {
-				return false;
-			}
-			if (!(obj instanceof MoveTo)) {
-				return false;
-			}
-			MoveTo other = (MoveTo) obj;
-			if (Float.floatToIntBits(x) != Float.floatToIntBits(other.x)) {
-				return false;
-			}
-			if (Float.floatToIntBits(y) != Float.floatToIntBits(other.y)) {
-				return false;
-			}
-			return true;
+		final int verbCount = buffer.verbCount;
+		final int coordCount = buffer.coordCount;
+		buffer.append(verbs, verbs.length, coords, coords.length);
+		setFillType(FILL_TYPES[fillType]);
+		if (!deferred) {
+			replay(verbCount, coordCount);
 		}
 	}
 
-	private static class RCubicTo extends CubicTo {
-
-		public RCubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
-			super(x1, y1, x2, y2, x3, y3);
+	public static final Persistable.Persister<PathParcelable> CREATOR = new Persistable.Persister<PathParcelable>() {
+		public PathParcelable createFromParcel(Parcel in) {
+			return new PathParcelable(in);
 		}
 
-		public RCubicTo(Parcel in) {
-			super(in);
+		public PathParcelable createFromPersist(DataInput in) throws IOException {
+			return new PathParcelable(in);
 		}
 
-		@Override
-		public ActionType getType() {
-			return ActionType.R_CUBIC_TO;
+		public PathParcelable[] newArray(int size) {
+			return new PathParcelable[size];
 		}
+	};
 
-		@SuppressWarnings("unused")
-		public static final Parcelable.Creator<RCubicTo> CREATOR = new Parcelable.Creator<RCubicTo>() {
-			public RCubicTo createFromParcel(Parcel in) {
-				return new RCubicTo(in);
-			}
-
-			public RCubicTo[] newArray(int size) {
-				return new RCubicTo[size];
-			}
-		};
-	}
-
-	private static class RQuadTo extends QuadTo {
-
-		public RQuadTo(float x1, float y1, float x2, float y2) {
-			super(x1, y1, x2, y2);
+	/**
+	 * Restores paths without building their native path. The recorded calls
+	 * are validated, but only replayed once the path is queried, e.g. by
+	 * {@link #computeBounds(RectF, boolean)}, or by an explicit call to
+	 * {@link #materialize()}. Paths that are only forwarded or persisted never
+	 * allocate a native path this way. Calls recorded in the meantime are
+	 * replayed along with the restored ones.
+	 */
+	public static final Persistable.Persister<PathParcelable> DEFERRED_CREATOR = new Persistable.Persister<PathParcelable>() {
+		public PathParcelable createFromParcel(Parcel in) {
+			return new PathParcelable(in, true);
 		}
 
-		public RQuadTo(Parcel in) {
-			super(in);
+		public PathParcelable createFromPersist(DataInput in) throws IOException {
+			return new PathParcelable(in, true);
 		}
 
-		@Override
-		public ActionType getType() {
-			return ActionType.R_QUAD_TO;
+		public PathParcelable[] newArray(int size) {
+			return new PathParcelable[size];
 		}
+	};
 
-		@SuppressWarnings("unused")
-		public static final Parcelable.Creator<RQuadTo> CREATOR = new Parcelable.Creator<RQuadTo>() {
-			public RQuadTo createFromParcel(Parcel in) {
-				return new RQuadTo(in);
-			}
-
-			public RQuadTo[] newArray(int size) {
-				return new RQuadTo[size];
+	/**
+	 * Checks that the restored verbs are known, consume exactly the restored
+	 * arguments and have valid directions, as {@link #restoreFromParcel()} does
+	 * while replaying.
+	 */
+	private static void validate(byte[] verbs, int count, float[] coords, int coordCount) {
+		int at = 0;
+		for (int i = 0; i < count; i++) {
+			final int arguments = PathBuffer.arguments(verbs[i]);
+			if (arguments < 0 || at + arguments > coordCount || !PathBuffer.hasValidArguments(verbs[i], coords, at)) {
+				throw new BadParcelableException("Malformed PathParcelable at verb " + i);
 			}
-		};
-	}
-
-	private static class RLineTo extends LineTo {
-		public RLineTo(float x, float y) {
-			super(x, y);
-		}
-
-		public RLineTo(Parcel in) {
-			super(in);
+			at += arguments;
 		}
-
-		@Override
-		public ActionType getType() {
-			return ActionType.R_LINE_TO;
+		if (at != coordCount) {
+			throw new BadParcelableException("Malformed PathParcelable, " + (coordCount - at) + " unused arguments");
 		}
-
-		@SuppressWarnings("unused")
-		public static final Parcelable.Creator<RLineTo> CREATOR = new Parcelable.Creator<RLineTo>() {
-			public RLineTo createFromParcel(Parcel in) {
-				return new RLineTo(in);
-			}
-
-			public RLineTo[] newArray(int size) {
-				return new RLineTo[size];
-			}
-		};
 	}
 
-	private static class RMoveTo extends MoveTo {
-
-		public RMoveTo(float x, float y) {
-			super(x, y);
-		}
-
-		public RMoveTo(Parcel in) {
-			super(in);
-		}
-
-		@Override
-		public ActionType getType() {
-			return ActionType.R_MOVE_TO;
-		}
-
-		@SuppressWarnings("unused")
-		public static final Parcelable.Creator<RMoveTo> CREATOR = new Parcelable.Creator<RMoveTo>() {
-			public RMoveTo createFromParcel(Parcel in) {
-				return new RMoveTo(in);
-			}
-
-			public RMoveTo[] newArray(int size) {
-				return new RMoveTo[size];
-			}
-		};
+	/**
+	 * Replays the recorded buffer onto the native path. Every verb is checked
+	 * against the remaining arguments right before it is applied, so a
+	 * restored buffer needs no separate validation pass.
+	 */
+	private void restoreFromParcel() {
+		replay(0, 0);
 	}
 
-	private static class Offset extends MoveTo {
-		public Offset(float x, float y) {
-			super(x, y);
-		}
-
-		public Offset(Parcel in) {
-			super(in);
-		}
+	/**
+	 * Replays the recorded calls from the given verb and its arguments on.
+	 */
+	private void replay(int first, int at) {
+		final byte[] verbs = buffer.verbs;
+		final float[] c = buffer.coords;
+		final int count = buffer.verbCount;
+		final int coordCount = buffer.coordCount;
+		final RectF oval = this.oval;
+		super.incReserve((coordCount - at) / 2);
+		for (int i = first; i < count; i++) {
+			final byte verb = verbs[i];
+			final int arguments = PathBuffer.arguments(verb);
+			if (arguments < 0 || at + arguments > coordCount || !PathBuffer.hasValidArguments(verb, c, at)) {
+				throw new BadParcelableException("Malformed PathParcelable at verb " + i);
+			}
+			switch (verb) {
+			case PathBuffer.MOVE_TO:
+				super.moveTo(c[at], c[at + 1]);
+				break;
 
-		@Override
-		public ActionType getType() {
-			return ActionType.OFFSET;
-		}
+			case PathBuffer.R_MOVE_TO:
+				super.rMoveTo(c[at], c[at + 1]);
+				break;
 
-		@SuppressWarnings("unused")
-		public static final Parcelable.Creator<Offset> CREATOR = new Parcelable.Creator<Offset>() {
-			public Offset createFromParcel(Parcel in) {
-				return new Offset(in);
-			}
+			case PathBuffer.LINE_TO:
+				super.lineTo(c[at], c[at + 1]);
+				break;
 
-			public Offset[] newArray(int size) {
-				return new Offset[size];
-			}
-		};
+			case PathBuffer.R_LINE_TO:
+				super.rLineTo(c[at], c[at + 1]);
+				break;
 
-	}
+			case PathBuffer.CUBIC_TO:
+				super.cubicTo(c[at], c[at + 1], c[at + 2], c[at + 3], c[at + 4], c[at + 5]);
+				break;
 
-	private static class MatrixTransformation extends PathAction {
+			case PathBuffer.R_CUBIC_TO:
+				super.rCubicTo(c[at], c[at + 1], c[at + 2], c[at + 3], c[at + 4], c[at + 5]);
+				break;
 
-		public final Matrix matrix;
+			case PathBuffer.ARC_TO:
+				oval.set(c[at], c[at + 1], c[at + 2], c[at + 3]);
+				super.arcTo(oval, c[at + 4], c[at + 5], c[at + 6] != 0);
+				break;
 
-		public MatrixTransformation(Matrix matrix) {
-			this.matrix = matrix;
-		}
+			case PathBuffer.QUAD_TO:
+				super.quadTo(c[at], c[at + 1], c[at + 2], c[at + 3]);
+				break;
 
-		public MatrixTransformation(Parcel in) {
-			this.matrix = new Matrix();
-			final float[] values = new float[9];
-			in.readFloatArray(values);
-			this.matrix.setValues(values);
-		}
+			case PathBuffer.R_QUAD_TO:
+				super.rQuadTo(c[at], c[at + 1], c[at + 2], c[at + 3]);
+				break;
 
-		@Override
-		public ActionType getType() {
-			return ActionType.MATRIX_TRANSFORMATION;
-		}
+			case PathBuffer.ADD_ARC:
+				oval.set(c[at], c[at + 1], c[at + 2], c[at + 3]);
+				super.addArc(oval, c[at + 4], c[at + 5]);
+				break;
 
-		@Override
-		public void writeToParcel(Parcel dest, int flags) {
-			final float[] values = new float[9];
-			matrix.getValues(values);
-			dest.writeFloatArray(values);
-		}
+			case PathBuffer.ADD_CIRCLE:
+				super.addCircle(c[at], c[at + 1], c[at + 2], PathBuffer.direction(c[at + 3]));
+				break;
 
-		@SuppressWarnings("unused")
-		public static final Parcelable.Creator<MatrixTransformation> CREATOR = new Parcelable.Creator<MatrixTransformation>() {
-			public MatrixTransformation createFromParcel(Parcel in) {
-				return new MatrixTransformation(in);
-			}
+			case PathBuffer.ADD_OVAL:
+				oval.set(c[at], c[at + 1], c[at + 2], c[at + 3]);
+				super.addOval(oval, PathBuffer.direction(c[at + 4]));
+				break;
 
-			public MatrixTransformation[] newArray(int size) {
-				return new MatrixTransformation[size];
-			}
-		};
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = super.hashCode();
-
-			int matrixHashCode = 0;
-			if (matrix != null) {
-				final float[] values = new float[9];
-				matrix.getValues(values);
-				matrixHashCode = Arrays.hashCode(values);
-			}
+			case PathBuffer.ADD_RECT:
+				super.addRect(c[at], c[at + 1], c[at + 2], c[at + 3], PathBuffer.direction(c[at + 4]));
+				break;
 
-			result = prime * result + matrixHashCode;
-			return result;
-		}
+			case PathBuffer.ADD_ROUNDED_RECT:
+				oval.set(c[at], c[at + 1], c[at + 2], c[at + 3]);
+				super.addRoundRect(oval, c[at + 4], c[at + 5], PathBuffer.direction(c[at + 6]));
+				break;
 
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj) {
-				return true;
-			}
-			if (!super.equals(obj)) {
-				return false;
-			}
-			if (!(obj instanceof MatrixTransformation)) {
-				return false;
-			}
-			MatrixTransformation other = (MatrixTransformation) obj;
-			if (matrix == null) {
-				if (other.matrix != null) {
-					return false;
-				}
-			} else {
-				final float[] values = new float[9];
-				final float[] otherValues = new float[9];
+			case PathBuffer.ADD_ROUNDED_RECT_CORNERS:
+				oval.set(c[at], c[at + 1], c[at + 2], c[at + 3]);
+				System.arraycopy(c, at + 4, radii, 0, 8);
+				super.addRoundRect(oval, radii, PathBuffer.direction(c[at + 12]));
+				break;
 
-				matrix.getValues(values);
-				other.matrix.getValues(otherValues);
+			case PathBuffer.OFFSET:
+				super.offset(c[at], c[at + 1]);
+				break;
 
-				if (!Arrays.equals(values, otherValues)) {
-					return false;
+			case PathBuffer.MATRIX_TRANSFORMATION:
+				if (matrix == null) {
+					matrix = new Matrix();
 				}
+				System.arraycopy(c, at, values, 0, 9);
+				matrix.setValues(values);
+				super.transform(matrix);
+				break;
 
-				return false;
-			}
-			return true;
-		}
-
-	}
-
-	private static class Close extends PathAction {
-
-		public Close() {
-		}
-
-		public Close(Parcel in) {
-		}
-
-		@Override
-		public ActionType getType() {
-			return ActionType.CLOSE;
-		}
-
-		@Override
-		public void writeToParcel(Parcel dest, int flags) {
-		}
-
-		@SuppressWarnings("unused")
-		public static final Parcelable.Creator<Close> CREATOR = new Parcelable.Creator<Close>() {
-			public Close createFromParcel(Parcel in) {
-				return new Close(in);
-			}
+			case PathBuffer.CLOSE:
+				super.close();
+				break;
 
-			public Close[] newArray(int size) {
-				return new Close[size];
+			case PathBuffer.LAST_POINT:
+				super.setLastPoint(c[at], c[at + 1]);
+				break;
 			}
-		};
-
-	}
-
-	private static class LastPoint extends MoveTo {
-
-		public LastPoint(float x, float y) {
-			super(x, y);
+			at += arguments;
 		}
-
-		public LastPoint(Parcel in) {
-			super(in);
+		if (at != coordCount) {
+			throw new BadParcelableException("Malformed PathParcelable, " + (coordCount - at) + " unused arguments");
 		}
-
-		@Override
-		public ActionType getType() {
-			return ActionType.LAST_POINT;
-		}
-
-		@SuppressWarnings("unused")
-		public static final Parcelable.Creator<LastPoint> CREATOR = new Parcelable.Creator<LastPoint>() {
-			public LastPoint createFromParcel(Parcel in) {
-				return new LastPoint(in);
-			}
-
-			public LastPoint[] newArray(int size) {
-				return new LastPoint[size];
-			}
-		};
-
 	}
 
 }
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.graphics;
+
+/**
+ * The contours of a {@link PathParcelable} flattened to polylines, see
+ * {@link PathParcelable#flatten(float)}. Curves, arcs and ovals are replaced by
+ * chords that deviate at most by the tolerance from them. Polylines are
+ * immutable, so they can be shared and cached.
+ *
+ * <p>
+ * Points are numbered across all contours, contour <code>i</code> consists of
+ * the points from {@link #getContourStart(int)} to {@link #getContourEnd(int)}
+ * (exclusive). Closed contours repeat their first point at the end.
+ * </p>
+ *
+ * <p>
+ * {@link #getPosTan(float, float[], float[])} replaces
+ * {@link android.graphics.PathMeasure} for animations along a path: the
+ * cumulative length of the points is computed once, each query is a binary
+ * search and an interpolation without allocations. Lengths are measured
+ * along the chords, so they fall short of the exact curve lengths by a
+ * fraction of the tolerance per chord.
+ * </p>
+ */
+public final class PathPolyline {
+
+	final float tolerance;
+	final float[] points;
+	final int pointCount;
+	final int[] contourEnds;
+	final boolean[] closed;
+	final int contourCount;
+
+	/**
+	 * The revision and verb count of the flattened buffer.
+	 */
+	final int revision;
+	final int verbs;
+
+	/**
+	 * Distance of every point from the first one along the polylines,
+	 * computed on first use. Contours are measured one after another, the gap
+	 * between them doesn't count.
+	 */
+	private volatile float[] lengths;
+
+	PathPolyline(PathBuffer buffer, float tolerance, float[] points, int pointCount, int[] contourEnds,
+			boolean[] closed, int contourCount) {
+		this.revision = buffer.revision;
+		this.verbs = buffer.verbCount;
+		this.tolerance = tolerance;
+		this.points = points;
+		this.pointCount = pointCount;
+		this.contourEnds = contourEnds;
+		this.closed = closed;
+		this.contourCount = contourCount;
+	}
+
+	/**
+	 * @return whether this polyline was flattened from the current state of
+	 *         the buffer with the given tolerance.
+	 */
+	boolean isFlattened(PathBuffer buffer, float tolerance) {
+		return this.tolerance == tolerance && revision == buffer.revision && verbs == buffer.verbCount;
+	}
+
+	/**
+	 * @return the tolerance this polyline was flattened with.
+	 */
+	public float getTolerance() {
+		return tolerance;
+	}
+
+	/**
+	 * @return the number of points of all contours.
+	 */
+	public int getPointCount() {
+		return pointCount;
+	}
+
+	public float getX(int point) {
+		checkPoint(point);
+		return points[point * 2];
+	}
+
+	public float getY(int point) {
+		checkPoint(point);
+		return points[point * 2 + 1];
+	}
+
+	/**
+	 * Copy the points as pairs of coordinates, e.g. for
+	 * {@link android.graphics.Canvas#drawLines(float[], android.graphics.Paint)}
+	 * after duplicating the inner points.
+	 *
+	 * @param dst
+	 *            receives <code>count</code> points starting at
+	 *            <code>dst[offset]</code>.
+	 */
+	public void getPoints(int first, int count, float[] dst, int offset) {
+		if (first < 0 || count < 0 || first + count > pointCount) {
+			throw new IndexOutOfBoundsException("Points " + first + " to " + (first + count) + ", size " + pointCount);
+		}
+		System.arraycopy(points, first * 2, dst, offset, count * 2);
+	}
+
+	/**
+	 * @return the number of contours, contours without a segment are not part
+	 *         of the polyline.
+	 */
+	public int getContourCount() {
+		return contourCount;
+	}
+
+	/**
+	 * @return the index of the first point of the given contour.
+	 */
+	public int getContourStart(int contour) {
+		checkContour(contour);
+		return contourStart(contour);
+	}
+
+	/**
+	 * @return the index after the last point of the given contour.
+	 */
+	public int getContourEnd(int contour) {
+		checkContour(contour);
+		return contourEnds[contour];
+	}
+
+	/**
+	 * @return whether the given contour was closed.
+	 */
+	public boolean isClosed(int contour) {
+		checkContour(contour);
+		return closed[contour];
+	}
+
+	/**
+	 * @return the total length of all contours.
+	 */
+	public float getLength() {
+		final float[] lengths = lengths();
+		return pointCount == 0 ? 0 : lengths[pointCount - 1];
+	}
+
+	/**
+	 * @return the length of the given contour.
+	 */
+	public float getContourLength(int contour) {
+		checkContour(contour);
+		final float[] lengths = lengths();
+		return lengths[contourEnds[contour] - 1] - lengths[contourStart(contour)];
+	}
+
+	/**
+	 * @return the distance of the first point of the given contour from the
+	 *         start of the first contour, to pass distances within the contour
+	 *         to {@link #getPosTan(float, float[], float[])}.
+	 */
+	public float getContourOffset(int contour) {
+		checkContour(contour);
+		return lengths()[contourStart(contour)];
+	}
+
+	/**
+	 * Compute the position and tangent at a distance along the polylines, like
+	 * {@link android.graphics.PathMeasure#getPosTan(float, float[], float[])}
+	 * does for a single contour. Contours follow each other without a gap.
+	 *
+	 * @param distance
+	 *            the distance from the start, clamped to
+	 *            <code>[0, getLength()]</code>.
+	 * @param pos
+	 *            receives the position, may be <code>null</code>.
+	 * @param tan
+	 *            receives the unit tangent, may be <code>null</code>.
+	 * @return <code>false</code> if the polylines have no length.
+	 */
+	public boolean getPosTan(float distance, float[] pos, float[] tan) {
+		final float[] lengths = lengths();
+		if (pointCount == 0 || lengths[pointCount - 1] == 0) {
+			return false;
+		}
+		final float length = lengths[pointCount - 1];
+		if (!(distance > 0)) {
+			distance = 0;
+		} else if (distance > length) {
+			distance = length;
+		}
+
+		// the first point further than the distance ends the segment, it can't
+		// start a contour as those repeat the length of the previous point
+		int lo = 1, hi = pointCount - 1;
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (lengths[mid] > distance) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		int end = lo;
+		while (lengths[end] == lengths[end - 1]) {
+			// the distance is the total length, step back to the last segment
+			end--;
+		}
+
+		final int start = end - 1;
+		final float x1 = points[start * 2], y1 = points[start * 2 + 1];
+		final float dx = points[end * 2] - x1, dy = points[end * 2 + 1] - y1;
+		final float segment = lengths[end] - lengths[start];
+		if (pos != null) {
+			final float t = Math.min(1, (distance - lengths[start]) / segment);
+			pos[0] = x1 + dx * t;
+			pos[1] = y1 + dy * t;
+		}
+		if (tan != null) {
+			final float norm = (float) Math.sqrt(dx * dx + dy * dy);
+			tan[0] = dx / norm;
+			tan[1] = dy / norm;
+		}
+		return true;
+	}
+
+	private float[] lengths() {
+		float[] lengths = this.lengths;
+		if (lengths == null) {
+			lengths = new float[pointCount];
+			double length = 0;
+			for (int contour = 0; contour < contourCount; contour++) {
+				final int start = contourStart(contour);
+				lengths[start] = (float) length;
+				for (int i = start + 1; i < contourEnds[contour]; i++) {
+					final float dx = points[i * 2] - points[i * 2 - 2];
+					final float dy = points[i * 2 + 1] - points[i * 2 - 1];
+					length += Math.sqrt(dx * dx + dy * dy);
+					lengths[i] = (float) length;
+				}
+			}
+			this.lengths = lengths;
+		}
+		return lengths;
+	}
+
+	int contourStart(int contour) {
+		return contour == 0 ? 0 : contourEnds[contour - 1];
+	}
+
+	private void checkPoint(int point) {
+		if (point < 0 || point >= pointCount) {
+			throw new IndexOutOfBoundsException("Point " + point + ", size " + pointCount);
+		}
+	}
+
+	private void checkContour(int contour) {
+		if (contour < 0 || contour >= contourCount) {
+			throw new IndexOutOfBoundsException("Contour " + contour + ", size " + contourCount);
+		}
+	}
+}
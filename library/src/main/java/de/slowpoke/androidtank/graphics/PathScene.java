@@ -0,0 +1,519 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.graphics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.graphics.RectF;
+import android.os.BadParcelableException;
+import android.os.Parcel;
+import de.slowpoke.androidtank.content.Persistable;
+
+/**
+ * A collection of {@link PathParcelable}s with a spatial index over their
+ * bounds, so only the paths within a viewport have to be drawn.
+ *
+ * <p>
+ * The index is an R-tree packed with the Sort-Tile-Recursive algorithm. It is
+ * built from {@link PathParcelable#computeFastBounds(RectF)} on the first
+ * query after paths were added or removed. Paths changed after they were
+ * added are noticed by every query from the revision and the number of
+ * calls of their recordings, the index is rebuilt if their bounds changed.
+ * </p>
+ *
+ * <pre>
+ * List&lt;PathParcelable&gt; visible = new ArrayList&lt;PathParcelable&gt;();
+ * scene.query(viewport, visible);
+ * for (PathParcelable path : visible) {
+ * 	canvas.drawPath(path, paint);
+ * }
+ * visible.clear();
+ * </pre>
+ *
+ * <p>
+ * Restored paths are deferred, see {@link PathParcelable#DEFERRED_CREATOR}:
+ * only the paths returned by {@link #query(RectF, List)} are materialized,
+ * paths that are never visible don't build a native path.
+ * </p>
+ */
+public final class PathScene implements Persistable {
+
+	/**
+	 * Version of the parcel layout written by {@link #writeToParcel(Parcel, int)}.
+	 */
+	private static final byte PARCEL_VERSION = 1;
+
+	/**
+	 * Version of the binary layout written by {@link #writeToPersist(DataOutput)}.
+	 */
+	private static final byte PERSIST_VERSION = 1;
+
+	/**
+	 * Maximum number of entries per node.
+	 */
+	private static final int NODE_CAPACITY = 16;
+
+	private final ArrayList<PathParcelable> paths;
+
+	private boolean dirty = true;
+
+	/**
+	 * Bounds of every path as left, top, right, bottom.
+	 */
+	private float[] pathBounds = new float[0];
+
+	/**
+	 * Revision and number of calls of every path when its bounds were
+	 * computed, see {@link PathBuffer#revision}.
+	 */
+	private int[] revisions = new int[0];
+	private int[] verbCounts = new int[0];
+	private final float[] changedBounds = new float[4];
+
+	/**
+	 * Bounds of every node as left, top, right, bottom. The leaves come first,
+	 * the root is the last node.
+	 */
+	private float[] nodeBounds = new float[0];
+
+	/**
+	 * The first entry of every node in {@link #entries}, which holds path
+	 * indices for leaves and node indices for inner nodes.
+	 */
+	private int[] nodeFirst = new int[0];
+	private int[] nodeCount = new int[0];
+	private int nodes;
+	private int leaves;
+	private int[] entries = new int[0];
+
+	private int[] stack = new int[0];
+	private int[] hits = new int[0];
+	private long[] keys = new long[0];
+
+	public PathScene() {
+		this(16);
+	}
+
+	/**
+	 * @param capacity
+	 *            the number of paths to reserve room for.
+	 */
+	public PathScene(int capacity) {
+		paths = new ArrayList<PathParcelable>(capacity);
+	}
+
+	public PathScene(Parcel in) {
+		final byte version = in.readByte();
+		if (version != PARCEL_VERSION) {
+			throw new BadParcelableException("Unsupported PathScene version " + version);
+		}
+		final int size = in.readInt();
+		if (size < 0) {
+			throw new BadParcelableException("Malformed PathScene, negative size " + size);
+		}
+		paths = new ArrayList<PathParcelable>(size);
+		for (int i = 0; i < size; i++) {
+			paths.add(PathParcelable.DEFERRED_CREATOR.createFromParcel(in));
+		}
+	}
+
+	public PathScene(DataInput in) throws IOException {
+		final byte version = in.readByte();
+		if (version != PERSIST_VERSION) {
+			throw new IOException("Unsupported PathScene version " + version);
+		}
+		final int size = in.readInt();
+		if (size < 0) {
+			throw new IOException("Malformed PathScene, negative size " + size);
+		}
+		paths = new ArrayList<PathParcelable>(size);
+		for (int i = 0; i < size; i++) {
+			paths.add(PathParcelable.DEFERRED_CREATOR.createFromPersist(in));
+		}
+	}
+
+	/**
+	 * Add a path, it is drawn on top of the paths added before.
+	 */
+	public void add(PathParcelable path) {
+		if (path == null) {
+			throw new NullPointerException("path");
+		}
+		paths.add(path);
+		dirty = true;
+	}
+
+	/**
+	 * Remove the given instance, paths that are merely equal to it are kept.
+	 *
+	 * @return whether the path was part of this scene.
+	 */
+	public boolean remove(PathParcelable path) {
+		for (int i = 0, size = paths.size(); i < size; i++) {
+			if (paths.get(i) == path) {
+				paths.remove(i);
+				dirty = true;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public void clear() {
+		paths.clear();
+		dirty = true;
+	}
+
+	/**
+	 * @return the number of paths in this scene.
+	 */
+	public int size() {
+		return paths.size();
+	}
+
+	/**
+	 * @return the path at the given index, in the order of
+	 *         {@link #add(PathParcelable)}.
+	 */
+	public PathParcelable get(int index) {
+		return paths.get(index);
+	}
+
+	/**
+	 * Rebuild the index on the next query.
+	 *
+	 * @deprecated changed paths are detected by the queries, there is no
+	 *             need to announce them.
+	 */
+	@Deprecated
+	public void invalidate() {
+		dirty = true;
+	}
+
+	/**
+	 * Find the paths whose bounds intersect the viewport. The paths are
+	 * materialized, so they can be drawn right away.
+	 *
+	 * @param viewport
+	 *            the visible area.
+	 * @param result
+	 *            receives the paths in the order they were added, i.e. in
+	 *            drawing order.
+	 * @return the number of paths added to <code>result</code>.
+	 */
+	public int query(RectF viewport, List<? super PathParcelable> result) {
+		index();
+		int found = 0;
+		int top = 0;
+		if (nodes > 0) {
+			stack[top++] = nodes - 1;
+		}
+		while (top > 0) {
+			final int node = stack[--top];
+			if (!intersects(nodeBounds, node, viewport)) {
+				continue;
+			}
+			final int end = nodeFirst[node] + nodeCount[node];
+			if (node < leaves) {
+				for (int i = nodeFirst[node]; i < end; i++) {
+					if (intersects(pathBounds, entries[i], viewport)) {
+						hits[found++] = entries[i];
+					}
+				}
+			} else {
+				for (int i = nodeFirst[node]; i < end; i++) {
+					stack[top++] = entries[i];
+				}
+			}
+		}
+
+		Arrays.sort(hits, 0, found);
+		for (int i = 0; i < found; i++) {
+			final PathParcelable path = paths.get(hits[i]);
+			path.materialize();
+			result.add(path);
+		}
+		return found;
+	}
+
+	/**
+	 * Find the path whose outline is closest to a point, e.g. the shape a user
+	 * tapped on. Paths are ordered by the distance of their bounds first, only
+	 * those that may be closer than the best match so far are measured.
+	 *
+	 * @param maxDistance
+	 *            the maximum distance of the outline from the point.
+	 * @return the closest path, or <code>null</code> if no outline is within
+	 *         <code>maxDistance</code>.
+	 */
+	public PathParcelable nearest(float x, float y, float maxDistance) {
+		index();
+		float best = maxDistance * maxDistance;
+		int nearest = -1;
+		int top = 0;
+		if (nodes > 0) {
+			stack[top++] = nodes - 1;
+		}
+		while (top > 0) {
+			final int node = stack[--top];
+			if (distanceSquared(nodeBounds, node, x, y) > best) {
+				continue;
+			}
+			final int end = nodeFirst[node] + nodeCount[node];
+			if (node < leaves) {
+				for (int i = nodeFirst[node]; i < end; i++) {
+					final int path = entries[i];
+					if (distanceSquared(pathBounds, path, x, y) > best) {
+						continue;
+					}
+					final float distance = paths.get(path).distanceSquared(x, y, best);
+					if (distance < best) {
+						best = distance;
+						nearest = path;
+					}
+				}
+			} else {
+				for (int i = nodeFirst[node]; i < end; i++) {
+					stack[top++] = entries[i];
+				}
+			}
+		}
+		return nearest < 0 ? null : paths.get(nearest);
+	}
+
+	private static boolean intersects(float[] b, int i, RectF r) {
+		return b[i * 4] <= r.right && r.left <= b[i * 4 + 2] && b[i * 4 + 1] <= r.bottom && r.top <= b[i * 4 + 3];
+	}
+
+	private static float distanceSquared(float[] b, int i, float x, float y) {
+		final float dx = Math.max(0, Math.max(b[i * 4] - x, x - b[i * 4 + 2]));
+		final float dy = Math.max(0, Math.max(b[i * 4 + 1] - y, y - b[i * 4 + 3]));
+		return dx * dx + dy * dy;
+	}
+
+	/**
+	 * Build the index if paths were added, removed or changed since it was
+	 * built.
+	 */
+	private void index() {
+		if (!dirty && !boundsChanged()) {
+			return;
+		}
+		dirty = false;
+
+		final int size = paths.size();
+		if (pathBounds.length < size * 4) {
+			pathBounds = new float[size * 4];
+			revisions = new int[size];
+			verbCounts = new int[size];
+			hits = new int[size];
+			keys = new long[size];
+		}
+		for (int i = 0; i < size; i++) {
+			final PathParcelable path = paths.get(i);
+			path.computeFastBounds(pathBounds, i * 4);
+			revisions[i] = path.buffer.revision;
+			verbCounts[i] = path.buffer.verbCount;
+		}
+
+		int capacity = 0;
+		for (int count = size; count > 1;) {
+			count = (count + NODE_CAPACITY - 1) / NODE_CAPACITY;
+			capacity += count;
+		}
+		capacity = Math.max(capacity, 1);
+		if (nodeFirst.length < capacity) {
+			nodeBounds = new float[capacity * 4];
+			nodeFirst = new int[capacity];
+			nodeCount = new int[capacity];
+		}
+		if (entries.length < size + capacity) {
+			entries = new int[size + capacity];
+		}
+
+		nodes = 0;
+		leaves = 0;
+		int levels = 0;
+		for (int i = 0; i < size; i++) {
+			entries[i] = i;
+		}
+		int start = 0;
+		int count = size;
+		float[] level = pathBounds;
+		while (count > 0) {
+			pack(start, count, level);
+			final int first = nodes;
+			for (int i = start; i < start + count; i += NODE_CAPACITY) {
+				addNode(i, Math.min(NODE_CAPACITY, start + count - i), level);
+			}
+			if (levels++ == 0) {
+				leaves = nodes;
+			}
+			if (nodes - first == 1) {
+				break;
+			}
+
+			// the new nodes are the entries of the next level
+			start += count;
+			count = nodes - first;
+			for (int i = 0; i < count; i++) {
+				entries[start + i] = first + i;
+			}
+			level = nodeBounds;
+		}
+
+		if (stack.length < levels * NODE_CAPACITY + 1) {
+			stack = new int[levels * NODE_CAPACITY + 1];
+		}
+	}
+
+	/**
+	 * Recompute the bounds of the paths changed since they were indexed.
+	 * Calls appended within the bounds of a path don't require a rebuild.
+	 *
+	 * @return whether the bounds of a path changed.
+	 */
+	private boolean boundsChanged() {
+		for (int i = 0, size = paths.size(); i < size; i++) {
+			final PathParcelable path = paths.get(i);
+			final PathBuffer buffer = path.buffer;
+			if (buffer.revision == revisions[i] && buffer.verbCount == verbCounts[i]) {
+				continue;
+			}
+			revisions[i] = buffer.revision;
+			verbCounts[i] = buffer.verbCount;
+			path.computeFastBounds(changedBounds, 0);
+			for (int k = 0; k < 4; k++) {
+				if (Float.compare(changedBounds[k], pathBounds[i * 4 + k]) != 0) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private void addNode(int first, int count, float[] level) {
+		final int node = nodes++;
+		float l = Float.POSITIVE_INFINITY, t = Float.POSITIVE_INFINITY;
+		float r = Float.NEGATIVE_INFINITY, b = Float.NEGATIVE_INFINITY;
+		for (int i = first; i < first + count; i++) {
+			final int entry = entries[i] * 4;
+			l = Math.min(l, level[entry]);
+			t = Math.min(t, level[entry + 1]);
+			r = Math.max(r, level[entry + 2]);
+			b = Math.max(b, level[entry + 3]);
+		}
+		nodeBounds[node * 4] = l;
+		nodeBounds[node * 4 + 1] = t;
+		nodeBounds[node * 4 + 2] = r;
+		nodeBounds[node * 4 + 3] = b;
+		nodeFirst[node] = first;
+		nodeCount[node] = count;
+	}
+
+	/**
+	 * Sort-Tile-Recursive: sort the entries by the x coordinate of their
+	 * centers, cut them into vertical slices of about the square root of the
+	 * number of nodes and sort each slice by the y coordinate. Runs of
+	 * {@link #NODE_CAPACITY} entries then form the nodes of the next level.
+	 */
+	private void pack(int start, int count, float[] level) {
+		if (keys.length < count) {
+			keys = new long[count];
+		}
+		final int nodeCount = (count + NODE_CAPACITY - 1) / NODE_CAPACITY;
+		final int slice = (int) Math.ceil(Math.sqrt(nodeCount)) * NODE_CAPACITY;
+
+		sort(start, count, level, 0);
+		for (int i = 0; i < count; i += slice) {
+			sort(start + i, Math.min(slice, count - i), level, 1);
+		}
+	}
+
+	/**
+	 * Sort entries by the center of their bounds along the given axis. Every
+	 * entry is packed into a <code>long</code> holding the center in its upper
+	 * half, so a primitive sort can be used.
+	 */
+	private void sort(int start, int count, float[] level, int axis) {
+		for (int i = 0; i < count; i++) {
+			final int entry = entries[start + i];
+			final float center = (level[entry * 4 + axis] + level[entry * 4 + axis + 2]) / 2;
+			int bits = Float.floatToIntBits(center);
+			// negative floats sort in reverse as ints
+			bits ^= (bits >> 31) & 0x7fffffff;
+			keys[i] = (long) bits << 32 | entry;
+		}
+		Arrays.sort(keys, 0, count);
+		for (int i = 0; i < count; i++) {
+			entries[start + i] = (int) keys[i];
+		}
+	}
+
+	/**
+	 * @return {@link android.os.Parcelable#CONTENTS_FILE_DESCRIPTOR} if any of
+	 *         the paths is parceled through a file, see
+	 *         {@link PathParcelable#setParcelFileTransport(java.io.File, int)}.
+	 */
+	@Override
+	public int describeContents() {
+		int contents = 0;
+		for (int i = 0, size = paths.size(); i < size; i++) {
+			contents |= paths.get(i).describeContents();
+		}
+		return contents;
+	}
+
+	@Override
+	public void writeToParcel(Parcel dest, int flags) {
+		dest.writeByte(PARCEL_VERSION);
+		final int size = paths.size();
+		dest.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			paths.get(i).writeToParcel(dest, flags);
+		}
+	}
+
+	@Override
+	public void writeToPersist(DataOutput output) throws IOException {
+		output.writeByte(PERSIST_VERSION);
+		final int size = paths.size();
+		output.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			paths.get(i).writeToPersist(output);
+		}
+	}
+
+	public static final Persistable.Persister<PathScene> CREATOR = new Persistable.Persister<PathScene>() {
+		public PathScene createFromParcel(Parcel in) {
+			return new PathScene(in);
+		}
+
+		public PathScene createFromPersist(DataInput in) throws IOException {
+			return new PathScene(in);
+		}
+
+		public PathScene[] newArray(int size) {
+			return new PathScene[size];
+		}
+	};
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.graphics;
+
+import java.util.Arrays;
+
+import android.graphics.Path.FillType;
+
+/**
+ * A bounding volume hierarchy over the edges of a flattened path. Edges are
+ * split at the median of their centers along the longer axis until at most
+ * {@link #LEAF_SIZE} edges remain, the nodes are stored in flat arrays in
+ * depth first order, so the left child of a node directly follows it.
+ *
+ * <p>
+ * Open contours get an additional closing edge which only takes part in fill
+ * queries, as filling closes every contour implicitly.
+ * </p>
+ */
+final class PathSegmentIndex {
+
+	private static final int LEAF_SIZE = 4;
+
+	/**
+	 * The indexed polyline.
+	 */
+	final PathPolyline polyline;
+
+	private final float[] points;
+
+	/**
+	 * Start and end point of every edge, sorted by node.
+	 */
+	private final int[] from;
+	private final int[] to;
+	private final boolean[] fillOnly;
+
+	/**
+	 * Bounds of every node as left, top, right, bottom.
+	 */
+	private float[] bounds;
+
+	/**
+	 * The first edge of leaves, the index of the right child for inner nodes.
+	 */
+	private int[] first;
+
+	/**
+	 * The number of edges of leaves, <code>0</code> for inner nodes.
+	 */
+	private int[] count;
+	private int nodes;
+
+	private final int[] stack;
+
+	PathSegmentIndex(PathPolyline polyline) {
+		this.polyline = polyline;
+		this.points = polyline.points;
+
+		int edges = 0;
+		for (int contour = 0; contour < polyline.contourCount; contour++) {
+			final int start = polyline.contourStart(contour);
+			edges += polyline.contourEnds[contour] - start - 1;
+			if (!polyline.closed[contour]) {
+				edges++;
+			}
+		}
+
+		from = new int[edges];
+		to = new int[edges];
+		fillOnly = new boolean[edges];
+		int edge = 0;
+		for (int contour = 0; contour < polyline.contourCount; contour++) {
+			final int start = polyline.contourStart(contour);
+			final int end = polyline.contourEnds[contour];
+			for (int i = start; i < end - 1; i++, edge++) {
+				from[edge] = i;
+				to[edge] = i + 1;
+			}
+			if (!polyline.closed[contour]) {
+				from[edge] = end - 1;
+				to[edge] = start;
+				fillOnly[edge] = true;
+				edge++;
+			}
+		}
+
+		final int capacity = Math.max(1, 2 * ((edges + LEAF_SIZE - 1) / LEAF_SIZE));
+		bounds = new float[capacity * 4];
+		first = new int[capacity];
+		count = new int[capacity];
+		int depth = 1;
+		if (edges > 0) {
+			final float[] centers = new float[edges * 2];
+			for (int i = 0; i < edges; i++) {
+				centers[i * 2] = (points[from[i] * 2] + points[to[i] * 2]) / 2;
+				centers[i * 2 + 1] = (points[from[i] * 2 + 1] + points[to[i] * 2 + 1]) / 2;
+			}
+			depth = build(0, edges, centers, 1);
+		}
+		stack = new int[depth + 2];
+	}
+
+	/**
+	 * Build the subtree holding the edges from <code>lo</code> to
+	 * <code>hi</code>.
+	 *
+	 * @return the depth of the subtree.
+	 */
+	private int build(int lo, int hi, float[] centers, int depth) {
+		final int node = nodes++;
+		if (node == first.length) {
+			final int capacity = first.length * 2;
+			bounds = Arrays.copyOf(bounds, capacity * 4);
+			first = Arrays.copyOf(first, capacity);
+			count = Arrays.copyOf(count, capacity);
+		}
+
+		float l = Float.POSITIVE_INFINITY, t = Float.POSITIVE_INFINITY;
+		float r = Float.NEGATIVE_INFINITY, b = Float.NEGATIVE_INFINITY;
+		float cl = Float.POSITIVE_INFINITY, ct = Float.POSITIVE_INFINITY;
+		float cr = Float.NEGATIVE_INFINITY, cb = Float.NEGATIVE_INFINITY;
+		for (int i = lo; i < hi; i++) {
+			final float x1 = points[from[i] * 2], y1 = points[from[i] * 2 + 1];
+			final float x2 = points[to[i] * 2], y2 = points[to[i] * 2 + 1];
+			l = Math.min(l, Math.min(x1, x2));
+			t = Math.min(t, Math.min(y1, y2));
+			r = Math.max(r, Math.max(x1, x2));
+			b = Math.max(b, Math.max(y1, y2));
+			cl = Math.min(cl, centers[i * 2]);
+			ct = Math.min(ct, centers[i * 2 + 1]);
+			cr = Math.max(cr, centers[i * 2]);
+			cb = Math.max(cb, centers[i * 2 + 1]);
+		}
+		bounds[node * 4] = l;
+		bounds[node * 4 + 1] = t;
+		bounds[node * 4 + 2] = r;
+		bounds[node * 4 + 3] = b;
+
+		if (hi - lo <= LEAF_SIZE) {
+			first[node] = lo;
+			count[node] = hi - lo;
+			return depth;
+		}
+
+		final int axis = cr - cl >= cb - ct ? 0 : 1;
+		final int mid = (lo + hi) >>> 1;
+		select(lo, hi - 1, mid, centers, axis);
+		count[node] = 0;
+		final int left = build(lo, mid, centers, depth + 1);
+		first[node] = nodes;
+		final int right = build(mid, hi, centers, depth + 1);
+		return Math.max(left, right);
+	}
+
+	/**
+	 * Partially sort the edges between <code>lo</code> and <code>hi</code>
+	 * (inclusive) by their centers, so the <code>k</code>-th edge is in place.
+	 */
+	private void select(int lo, int hi, int k, float[] centers, int axis) {
+		while (hi > lo) {
+			final float pivot = centers[((lo + hi) >>> 1) * 2 + axis];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (centers[i * 2 + axis] < pivot) {
+					i++;
+				}
+				while (centers[j * 2 + axis] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					swap(i++, j--, centers);
+				}
+			}
+			if (k <= j) {
+				hi = j;
+			} else if (k >= i) {
+				lo = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void swap(int i, int j, float[] centers) {
+		int edge = from[i];
+		from[i] = from[j];
+		from[j] = edge;
+		edge = to[i];
+		to[i] = to[j];
+		to[j] = edge;
+		final boolean fill = fillOnly[i];
+		fillOnly[i] = fillOnly[j];
+		fillOnly[j] = fill;
+		float center = centers[i * 2];
+		centers[i * 2] = centers[j * 2];
+		centers[j * 2] = center;
+		center = centers[i * 2 + 1];
+		centers[i * 2 + 1] = centers[j * 2 + 1];
+		centers[j * 2 + 1] = center;
+	}
+
+	/**
+	 * @return whether the point is within <code>radius</code> of an edge of the
+	 *         outline.
+	 */
+	boolean hitTest(float x, float y, float radius) {
+		if (nodes == 0) {
+			return false;
+		}
+		final float radiusSquared = radius * radius;
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			final int node = stack[--top];
+			if (x < bounds[node * 4] - radius || y < bounds[node * 4 + 1] - radius
+					|| x > bounds[node * 4 + 2] + radius || y > bounds[node * 4 + 3] + radius) {
+				continue;
+			}
+			if (count[node] == 0) {
+				stack[top++] = first[node];
+				stack[top++] = node + 1;
+				continue;
+			}
+			for (int i = first[node], end = i + count[node]; i < end; i++) {
+				if (!fillOnly[i]
+						&& PathSimplifier.distanceSquared(x, y, points[from[i] * 2], points[from[i] * 2 + 1],
+								points[to[i] * 2], points[to[i] * 2 + 1]) <= radiusSquared) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the squared distance of the point from the closest edge of the
+	 *         outline, or <code>limit</code> if no edge is closer than that.
+	 */
+	float distanceSquared(float x, float y, float limit) {
+		float best = limit;
+		int top = 0;
+		if (nodes > 0) {
+			stack[top++] = 0;
+		}
+		while (top > 0) {
+			final int node = stack[--top];
+			final float dx = Math.max(0, Math.max(bounds[node * 4] - x, x - bounds[node * 4 + 2]));
+			final float dy = Math.max(0, Math.max(bounds[node * 4 + 1] - y, y - bounds[node * 4 + 3]));
+			if (dx * dx + dy * dy >= best) {
+				continue;
+			}
+			if (count[node] == 0) {
+				stack[top++] = first[node];
+				stack[top++] = node + 1;
+				continue;
+			}
+			for (int i = first[node], end = i + count[node]; i < end; i++) {
+				if (!fillOnly[i]) {
+					best = Math.min(best, PathSimplifier.distanceSquared(x, y, points[from[i] * 2],
+							points[from[i] * 2 + 1], points[to[i] * 2], points[to[i] * 2 + 1]));
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return whether the point is inside the filled area, determined by the
+	 *         winding number of the edges crossing the ray to the right of it.
+	 */
+	boolean contains(float x, float y, FillType fillType) {
+		int winding = 0;
+		int crossings = 0;
+		int top = 0;
+		if (nodes > 0) {
+			stack[top++] = 0;
+		}
+		while (top > 0) {
+			final int node = stack[--top];
+			if (y < bounds[node * 4 + 1] || y > bounds[node * 4 + 3] || x > bounds[node * 4 + 2]) {
+				continue;
+			}
+			if (count[node] == 0) {
+				stack[top++] = first[node];
+				stack[top++] = node + 1;
+				continue;
+			}
+			for (int i = first[node], end = i + count[node]; i < end; i++) {
+				final float x1 = points[from[i] * 2], y1 = points[from[i] * 2 + 1];
+				final float x2 = points[to[i] * 2], y2 = points[to[i] * 2 + 1];
+				// half open in y, so a ray through a vertex counts once
+				if ((y1 <= y) == (y2 <= y)) {
+					continue;
+				}
+				final float crossX = x1 + (y - y1) * (x2 - x1) / (y2 - y1);
+				if (crossX > x) {
+					winding += y2 > y1 ? 1 : -1;
+					crossings++;
+				}
+			}
+		}
+
+		switch (fillType) {
+		case EVEN_ODD:
+			return (crossings & 1) != 0;
+		case INVERSE_EVEN_ODD:
+			return (crossings & 1) == 0;
+		case INVERSE_WINDING:
+			return winding == 0;
+		default:
+			return winding != 0;
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.graphics;
+
+/**
+ * Douglas-Peucker decimation of the polylines recorded in a
+ * {@link PathBuffer}. A polyline is a run of absolute <code>lineTo</code>
+ * calls, starting at the end point of the preceding move, line or curve. All
+ * other calls are copied unchanged.
+ */
+final class PathSimplifier {
+
+	private PathSimplifier() {
+	}
+
+	/**
+	 * @param tolerance
+	 *            the maximum distance of a dropped point from the simplified
+	 *            polyline.
+	 * @return a new buffer holding the simplified path.
+	 */
+	static PathBuffer simplify(PathBuffer src, float tolerance) {
+		final byte[] verbs = src.verbs;
+		final float[] c = src.coords;
+		final int verbCount = src.verbCount;
+		final PathBuffer dst = new PathBuffer(Math.max(16, verbCount / 4));
+		final float toleranceSquared = tolerance * tolerance;
+
+		boolean anchored = false;
+		float anchorX = 0, anchorY = 0;
+		boolean[] keep = new boolean[64];
+		int[] stack = new int[64];
+
+		for (int i = 0, at = 0; i < verbCount;) {
+			final byte verb = verbs[i];
+			if (verb != PathBuffer.LINE_TO) {
+				final int arguments = PathBuffer.arguments(verb);
+				final int to = dst.append(verb);
+				System.arraycopy(c, at, dst.coords, to, arguments);
+
+				switch (verb) {
+				case PathBuffer.MOVE_TO:
+				case PathBuffer.QUAD_TO:
+				case PathBuffer.CUBIC_TO:
+					anchored = true;
+					anchorX = c[at + arguments - 2];
+					anchorY = c[at + arguments - 2 + 1];
+					break;
+				default:
+					anchored = false;
+					break;
+				}
+				at += arguments;
+				i++;
+				continue;
+			}
+
+			// collect the run of lineTo calls, points[0] is the anchor
+			int end = i;
+			while (end < verbCount && verbs[end] == PathBuffer.LINE_TO) {
+				end++;
+			}
+			final int first = anchored ? at - 2 : at;
+			final float firstX = anchored ? anchorX : c[at];
+			final float firstY = anchored ? anchorY : c[at + 1];
+			final int points = (end - i) + (anchored ? 1 : 0);
+
+			if (keep.length < points) {
+				keep = new boolean[points * 2];
+			}
+			if (stack.length < points * 2) {
+				stack = new int[points * 4];
+			}
+
+			decimate(c, first, firstX, firstY, points, toleranceSquared, keep, stack);
+			for (int p = anchored ? 1 : 0; p < points; p++) {
+				if (keep[p]) {
+					final int index = first + p * 2;
+					dst.append(PathBuffer.LINE_TO, c[index], c[index + 1]);
+				}
+			}
+
+			at += (end - i) * 2;
+			i = end;
+			anchored = true;
+			anchorX = c[at - 2];
+			anchorY = c[at - 1];
+		}
+		return dst;
+	}
+
+	/**
+	 * Mark the points of a polyline to keep. Point <code>p</code> is read from
+	 * <code>c[first + p * 2]</code>, except for the first point which is passed
+	 * separately, as it may not be stored next to the others.
+	 */
+	private static void decimate(float[] c, int first, float firstX, float firstY, int points, float toleranceSquared,
+			boolean[] keep, int[] stack) {
+		for (int p = 0; p < points; p++) {
+			keep[p] = false;
+		}
+		keep[0] = true;
+		keep[points - 1] = true;
+
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = points - 1;
+		while (top > 0) {
+			final int to = stack[--top];
+			final int from = stack[--top];
+			if (to - from < 2) {
+				continue;
+			}
+
+			final float x1 = from == 0 ? firstX : c[first + from * 2];
+			final float y1 = from == 0 ? firstY : c[first + from * 2 + 1];
+			final float x2 = c[first + to * 2];
+			final float y2 = c[first + to * 2 + 1];
+
+			float max = -1;
+			int index = -1;
+			for (int p = from + 1; p < to; p++) {
+				final float d = distanceSquared(c[first + p * 2], c[first + p * 2 + 1], x1, y1, x2, y2);
+				if (d > max) {
+					max = d;
+					index = p;
+				}
+			}
+
+			if (max > toleranceSquared) {
+				keep[index] = true;
+				stack[top++] = from;
+				stack[top++] = index;
+				stack[top++] = index;
+				stack[top++] = to;
+			}
+		}
+	}
+
+	/**
+	 * @return the squared distance of a point from the segment between
+	 *         <code>(x1, y1)</code> and <code>(x2, y2)</code>.
+	 */
+	static float distanceSquared(float x, float y, float x1, float y1, float x2, float y2) {
+		final float dx = x2 - x1;
+		final float dy = y2 - y1;
+		final float lengthSquared = dx * dx + dy * dy;
+		float t = 0;
+		if (lengthSquared > 0) {
+			t = ((x - x1) * dx + (y - y1) * dy) / lengthSquared;
+			t = Math.max(0, Math.min(1, t));
+		}
+		final float px = x1 + t * dx - x;
+		final float py = y1 + t * dy - y;
+		return px * px + py * py;
+	}
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.graphics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Recording, sharing and compaction of {@link PathBuffer}.
+ */
+public class PathBufferTest {
+
+	private static final float[] IDENTITY = { 1, 0, 0, 0, 1, 0, 0, 0, 1 };
+
+	private static byte[] verbs(PathBuffer buffer) {
+		return Arrays.copyOf(buffer.verbs, buffer.verbCount);
+	}
+
+	private static float[] coords(PathBuffer buffer) {
+		return Arrays.copyOf(buffer.coords, buffer.coordCount);
+	}
+
+	private static void assertContent(PathBuffer buffer, byte[] verbs, float[] coords) {
+		assertArrayEquals("verbs", verbs, verbs(buffer));
+		assertArrayEquals("coords", coords, coords(buffer), 0);
+	}
+
+	private static void matrix(PathBuffer buffer, float[] m) {
+		final int at = buffer.append(PathBuffer.MATRIX_TRANSFORMATION);
+		System.arraycopy(m, 0, buffer.coords, at, 9);
+	}
+
+	@Test
+	public void compactMergesMoves() {
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 1, 1);
+		buffer.append(PathBuffer.MOVE_TO, 2, 2);
+		buffer.append(PathBuffer.LINE_TO, 5, 5);
+
+		assertEquals(1, buffer.compact());
+		assertContent(buffer, new byte[] { PathBuffer.MOVE_TO, PathBuffer.LINE_TO }, new float[] { 2, 2, 5, 5 });
+	}
+
+	@Test
+	public void compactKeepsRelativeMovesRelative() {
+		// a relative move after an absolute one moves from its point
+		PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 1, 1);
+		buffer.append(PathBuffer.R_MOVE_TO, 2, 3);
+		buffer.append(PathBuffer.R_LINE_TO, 1, 0);
+		assertEquals(1, buffer.compact());
+		assertContent(buffer, new byte[] { PathBuffer.MOVE_TO, PathBuffer.R_LINE_TO }, new float[] { 3, 4, 1, 0 });
+
+		// relative moves add up and stay relative to the preceding point
+		buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 0, 0);
+		buffer.append(PathBuffer.LINE_TO, 4, 4);
+		buffer.append(PathBuffer.R_MOVE_TO, 1, 1);
+		buffer.append(PathBuffer.R_MOVE_TO, 2, -1);
+		buffer.append(PathBuffer.R_LINE_TO, 1, 0);
+		assertEquals(1, buffer.compact());
+		assertContent(buffer, new byte[] { PathBuffer.MOVE_TO, PathBuffer.LINE_TO, PathBuffer.R_MOVE_TO,
+				PathBuffer.R_LINE_TO }, new float[] { 0, 0, 4, 4, 3, 0, 1, 0 });
+
+		// an absolute move replaces a relative one
+		buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.R_MOVE_TO, 1, 1);
+		buffer.append(PathBuffer.MOVE_TO, 7, 8);
+		assertEquals(1, buffer.compact());
+		assertContent(buffer, new byte[] { PathBuffer.MOVE_TO }, new float[] { 7, 8 });
+	}
+
+	@Test
+	public void appendAfterCompact() {
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 1, 1);
+		buffer.append(PathBuffer.R_MOVE_TO, 1, 1);
+		buffer.compact();
+		buffer.append(PathBuffer.R_MOVE_TO, 1, 1);
+		buffer.append(PathBuffer.R_LINE_TO, 3, 0);
+
+		// appended calls are not merged into the compacted ones until the
+		// next compaction
+		assertContent(buffer, new byte[] { PathBuffer.MOVE_TO, PathBuffer.R_MOVE_TO, PathBuffer.R_LINE_TO },
+				new float[] { 2, 2, 1, 1, 3, 0 });
+		assertEquals(1, buffer.compact());
+		assertContent(buffer, new byte[] { PathBuffer.MOVE_TO, PathBuffer.R_LINE_TO }, new float[] { 3, 3, 3, 0 });
+	}
+
+	@Test
+	public void compactDropsEmptyLines() {
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 0, 0);
+		buffer.append(PathBuffer.LINE_TO, 5, 5);
+		buffer.append(PathBuffer.LINE_TO, 5, 5);
+		buffer.append(PathBuffer.R_LINE_TO, 0, 0);
+		buffer.append(PathBuffer.LINE_TO, 6, 5);
+		assertEquals(2, buffer.compact());
+		assertContent(buffer, new byte[] { PathBuffer.MOVE_TO, PathBuffer.LINE_TO, PathBuffer.LINE_TO },
+				new float[] { 0, 0, 5, 5, 6, 5 });
+	}
+
+	@Test
+	public void compactKeepsLinesBeforeLastPoint() {
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 0, 0);
+		buffer.append(PathBuffer.LINE_TO, 5, 5);
+		buffer.append(PathBuffer.LINE_TO, 5, 5);
+		buffer.append(PathBuffer.LAST_POINT, 1, 1);
+		assertEquals(0, buffer.compact());
+	}
+
+	@Test
+	public void compactMergesOffsets() {
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 0, 0);
+		buffer.append(PathBuffer.OFFSET, 1, 2);
+		buffer.append(PathBuffer.OFFSET, 3, 4);
+		buffer.append(PathBuffer.OFFSET, 0, 0);
+		assertEquals(2, buffer.compact());
+		assertContent(buffer, new byte[] { PathBuffer.MOVE_TO, PathBuffer.OFFSET }, new float[] { 0, 0, 4, 6 });
+
+		// offsets that cancel out are dropped completely
+		buffer.append(PathBuffer.OFFSET, -4, -6);
+		assertEquals(2, buffer.compact());
+		assertContent(buffer, new byte[] { PathBuffer.MOVE_TO }, new float[] { 0, 0 });
+	}
+
+	@Test
+	public void compactConcatenatesMatrices() {
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 1, 1);
+		matrix(buffer, new float[] { 2, 0, 0, 0, 2, 0, 0, 0, 1 });
+		matrix(buffer, IDENTITY);
+		matrix(buffer, new float[] { 1, 0, 5, 0, 1, 6, 0, 0, 1 });
+		assertEquals(2, buffer.compact());
+		assertContent(buffer, new byte[] { PathBuffer.MOVE_TO, PathBuffer.MATRIX_TRANSFORMATION }, new float[] { 1,
+				1, 2, 0, 5, 0, 2, 6, 0, 0, 1 });
+
+		// a perspective matrix is kept as it is
+		final float[] perspective = { 1, 0, 0, 0, 1, 0, 0.5f, 0, 1 };
+		matrix(buffer, perspective);
+		assertEquals(0, buffer.compact());
+		assertEquals(3, buffer.verbCount);
+	}
+
+	@Test
+	public void compactDetachesSharedStorage() {
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 1, 1);
+		buffer.append(PathBuffer.MOVE_TO, 2, 2);
+		final PathBuffer snapshot = buffer.snapshot();
+		final int revision = buffer.revision;
+
+		assertEquals(1, buffer.compact());
+		assertTrue(buffer.revision != revision);
+		assertContent(buffer, new byte[] { PathBuffer.MOVE_TO }, new float[] { 2, 2 });
+		assertContent(snapshot, new byte[] { PathBuffer.MOVE_TO, PathBuffer.MOVE_TO }, new float[] { 1, 1, 2, 2 });
+	}
+
+	@Test
+	public void compactWithoutChangesKeepsRevision() {
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 1, 1);
+		buffer.append(PathBuffer.LINE_TO, 2, 2);
+		final int revision = buffer.revision;
+		assertEquals(0, buffer.compact());
+		assertEquals(revision, buffer.revision);
+	}
+
+	@Test
+	public void snapshotsAppendIndependently() {
+		final PathBuffer buffer = new PathBuffer(2);
+		buffer.append(PathBuffer.MOVE_TO, 0, 0);
+		final PathBuffer snapshot = buffer.snapshot();
+		assertTrue("shares the storage", snapshot.verbs == buffer.verbs);
+
+		buffer.append(PathBuffer.LINE_TO, 1, 1);
+		snapshot.append(PathBuffer.LINE_TO, 2, 2);
+		assertContent(buffer, new byte[] { PathBuffer.MOVE_TO, PathBuffer.LINE_TO }, new float[] { 0, 0, 1, 1 });
+		assertContent(snapshot, new byte[] { PathBuffer.MOVE_TO, PathBuffer.LINE_TO }, new float[] { 0, 0, 2, 2 });
+	}
+
+	@Test
+	public void snapshotDetachesWhileGrowing() {
+		final PathBuffer buffer = new PathBuffer(1);
+		buffer.append(PathBuffer.MOVE_TO, 0, 0);
+		final PathBuffer snapshot = buffer.snapshot();
+
+		// the snapshot outgrows the shared arrays first, the original keeps
+		// appending to them afterwards
+		for (int i = 1; i <= 100; i++) {
+			snapshot.append(PathBuffer.LINE_TO, i, -i);
+		}
+		for (int i = 1; i <= 100; i++) {
+			buffer.append(PathBuffer.LINE_TO, i, i);
+		}
+
+		assertEquals(101, buffer.verbCount);
+		assertEquals(101, snapshot.verbCount);
+		for (int i = 1; i <= 100; i++) {
+			assertEquals(i, buffer.coords[i * 2 + 1], 0);
+			assertEquals(-i, snapshot.coords[i * 2 + 1], 0);
+		}
+	}
+
+	@Test
+	public void clearedSnapshotSource() {
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 3, 3);
+		final PathBuffer snapshot = buffer.snapshot();
+		buffer.clear();
+		buffer.append(PathBuffer.MOVE_TO, 4, 4);
+		assertContent(snapshot, new byte[] { PathBuffer.MOVE_TO }, new float[] { 3, 3 });
+		assertContent(buffer, new byte[] { PathBuffer.MOVE_TO }, new float[] { 4, 4 });
+	}
+
+	@Test
+	public void appendToItself() {
+		final PathBuffer buffer = new PathBuffer(1);
+		buffer.append(PathBuffer.MOVE_TO, 1, 2);
+		buffer.append(PathBuffer.LINE_TO, 3, 4);
+		buffer.append(buffer, null);
+		assertContent(buffer, new byte[] { PathBuffer.MOVE_TO, PathBuffer.LINE_TO, PathBuffer.MOVE_TO,
+				PathBuffer.LINE_TO }, new float[] { 1, 2, 3, 4, 1, 2, 3, 4 });
+
+		buffer.append(buffer, new float[] { 1, 0, 10, 0, 1, 20, 0, 0, 1 });
+		assertEquals(8, buffer.verbCount);
+		assertArrayEquals(new float[] { 11, 22, 13, 24, 11, 22, 13, 24 },
+				Arrays.copyOfRange(buffer.coords, 8, 16), 0);
+	}
+
+	@Test
+	public void appendStartsContour() {
+		final PathBuffer src = new PathBuffer(4);
+		src.append(PathBuffer.R_LINE_TO, 1, 1);
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 5, 5);
+		buffer.append(src, new float[] { 2, 0, 10, 0, 2, 20, 0, 0, 1 });
+
+		// relative arguments are not translated
+		assertContent(buffer, new byte[] { PathBuffer.MOVE_TO, PathBuffer.MOVE_TO, PathBuffer.R_LINE_TO },
+				new float[] { 5, 5, 10, 20, 2, 2 });
+	}
+
+	@Test
+	public void directions() {
+		final float[] c = { 0, 0, 1, 0 };
+		assertTrue(PathBuffer.hasValidArguments(PathBuffer.ADD_CIRCLE, c, 0));
+		c[3] = 1;
+		assertTrue(PathBuffer.hasValidArguments(PathBuffer.ADD_CIRCLE, c, 0));
+		c[3] = 2;
+		assertFalse(PathBuffer.hasValidArguments(PathBuffer.ADD_CIRCLE, c, 0));
+		c[3] = -1;
+		assertFalse(PathBuffer.hasValidArguments(PathBuffer.ADD_CIRCLE, c, 0));
+		c[3] = 0.5f;
+		assertFalse(PathBuffer.hasValidArguments(PathBuffer.ADD_CIRCLE, c, 0));
+		c[3] = Float.NaN;
+		assertFalse(PathBuffer.hasValidArguments(PathBuffer.ADD_CIRCLE, c, 0));
+	}
+
+	@Test
+	public void streamRoundTrip() throws IOException {
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 1.5f, -2);
+		for (int i = 0; i < 5000; i++) {
+			buffer.append(PathBuffer.CUBIC_TO, i, i + 0.25f, -i, Float.MAX_VALUE, Float.MIN_VALUE, i * 3);
+		}
+		buffer.append(PathBuffer.CLOSE);
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		buffer.writeTo(new DataOutputStream(bytes));
+		final byte[] data = bytes.toByteArray();
+
+		final PathBuffer read = PathBuffer.readFrom(new DataInputStream(new ByteArrayInputStream(data)));
+		assertEquals(buffer, read);
+		assertContent(read, verbs(buffer), coords(buffer));
+
+		final ByteBuffer in = ByteBuffer.wrap(data);
+		assertEquals(buffer, PathBuffer.readFrom(in));
+		assertEquals(0, in.remaining());
+	}
+
+	@Test
+	public void emptyRoundTrip() throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new PathBuffer(1).writeTo(new DataOutputStream(bytes));
+		final PathBuffer read = PathBuffer.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertEquals(0, read.verbCount);
+		assertEquals(0, read.coordCount);
+	}
+
+	@Test
+	public void growingStreamRoundTrip() throws IOException {
+		// more verbs and arguments than are allocated up front
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 0, 0);
+		for (int i = 0; i < 20000; i++) {
+			buffer.append(PathBuffer.LINE_TO, i, -i);
+		}
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		buffer.writeTo(new DataOutputStream(bytes));
+		final PathBuffer read = PathBuffer.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertContent(read, verbs(buffer), coords(buffer));
+	}
+
+	@Test
+	public void malformedStreams() {
+		// negative, overflowing and oversized counts, and a large count
+		// without the data
+		assertMalformed(-1, 0);
+		assertMalformed(0, -1);
+		assertMalformed(0, 0x40000000);
+		assertMalformed(Integer.MAX_VALUE, Integer.MAX_VALUE);
+		assertMalformed(0, 50000000);
+		assertMalformed(50000000, 0);
+	}
+
+	private static void assertMalformed(int verbCount, int coordCount) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			final DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(verbCount);
+			out.writeInt(coordCount);
+			out.write(new byte[16]);
+			PathBuffer.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+			fail("read " + verbCount + " verbs and " + coordCount + " arguments");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void truncatedBuffer() throws IOException {
+		final ByteBuffer in = ByteBuffer.allocate(12);
+		in.putInt(2).putInt(4).flip();
+		PathBuffer.readFrom(in);
+	}
+
+	@Test
+	public void equalContent() {
+		final PathBuffer a = new PathBuffer(1);
+		final PathBuffer b = new PathBuffer(64);
+		a.append(PathBuffer.MOVE_TO, 1, 2);
+		b.append(PathBuffer.MOVE_TO, 1, 2);
+		assertEquals(a, b);
+		assertEquals(a.hashCode(), b.hashCode());
+
+		a.append(PathBuffer.LINE_TO, 0f, 0);
+		b.append(PathBuffer.LINE_TO, -0f, 0);
+		assertFalse(a.equals(b));
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.graphics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Round trips through {@link PathCompression} and the error bounds it
+ * promises.
+ */
+public class PathCompressionTest {
+
+	private static PathBuffer roundTrip(PathBuffer buffer, float step) throws IOException {
+		final byte[] verbs = Arrays.copyOf(buffer.verbs, buffer.verbCount);
+		final PathBuffer decoded = PathCompression.decode(verbs, PathCompression.encode(buffer, step), step);
+		assertArrayEquals("verbs", verbs, Arrays.copyOf(decoded.verbs, decoded.verbCount));
+		assertEquals(buffer.coordCount, decoded.coordCount);
+		return decoded;
+	}
+
+	/**
+	 * @return the current point after every call of a path made of moves and
+	 *         lines, as x and y.
+	 */
+	private static float[] points(PathBuffer buffer) {
+		final float[] points = new float[buffer.verbCount * 2];
+		float x = 0, y = 0;
+		for (int i = 0, at = 0; i < buffer.verbCount; i++, at += 2) {
+			final byte verb = buffer.verbs[i];
+			if (PathBuffer.isRelative(verb)) {
+				x += buffer.coords[at];
+				y += buffer.coords[at + 1];
+			} else {
+				x = buffer.coords[at];
+				y = buffer.coords[at + 1];
+			}
+			points[i * 2] = x;
+			points[i * 2 + 1] = y;
+		}
+		return points;
+	}
+
+	private static PathBuffer circle(float cx, float cy, float radius, float direction) {
+		final PathBuffer buffer = new PathBuffer(4);
+		final int at = buffer.append(PathBuffer.ADD_CIRCLE);
+		buffer.coords[at] = cx;
+		buffer.coords[at + 1] = cy;
+		buffer.coords[at + 2] = radius;
+		buffer.coords[at + 3] = direction;
+		return buffer;
+	}
+
+	@Test
+	public void exactRoundTrip() throws IOException {
+		// multiples of the step survive unchanged, including large deltas
+		final PathBuffer buffer = new PathBuffer(16);
+		buffer.append(PathBuffer.MOVE_TO, 0, 0);
+		buffer.append(PathBuffer.LINE_TO, 1e6f, -1e6f);
+		buffer.append(PathBuffer.QUAD_TO, -0.5f, 2.5f, 3, 4);
+		buffer.append(PathBuffer.CUBIC_TO, 1, 2, 3, 4, 5, 6);
+		buffer.append(PathBuffer.CLOSE);
+		assertEquals(buffer, roundTrip(buffer, 0.5f));
+	}
+
+	@Test
+	public void emptyRoundTrip() throws IOException {
+		final PathBuffer buffer = new PathBuffer(1);
+		assertEquals(0, PathCompression.encode(buffer, 1).length);
+		assertEquals(buffer, roundTrip(buffer, 1));
+	}
+
+	@Test
+	public void absoluteError() throws IOException {
+		final float step = 0.1f;
+		final PathBuffer buffer = new PathBuffer(16);
+		buffer.append(PathBuffer.MOVE_TO, 0.123f, -7.77f);
+		for (int i = 0; i < 1000; i++) {
+			buffer.append(PathBuffer.LINE_TO, (float) Math.sin(i) * 300, (float) Math.cos(i * 0.7) * 300);
+		}
+		final PathBuffer decoded = roundTrip(buffer, step);
+		for (int i = 0; i < buffer.coordCount; i++) {
+			assertEquals(buffer.coords[i], decoded.coords[i], step / 2 + 1e-4f);
+		}
+	}
+
+	@Test
+	public void relativeErrorsDontAddUp() throws IOException {
+		// every single offset would be rounded to zero
+		final float step = 1;
+		final PathBuffer buffer = new PathBuffer(16);
+		buffer.append(PathBuffer.MOVE_TO, 0, 0);
+		for (int i = 0; i < 1000; i++) {
+			buffer.append(PathBuffer.R_LINE_TO, 0.3f, 0.45f);
+		}
+		buffer.append(PathBuffer.R_MOVE_TO, 0.3f, 0.3f);
+		buffer.append(PathBuffer.R_LINE_TO, -0.2f, 0.2f);
+		buffer.append(PathBuffer.LINE_TO, 10, 10);
+		buffer.append(PathBuffer.R_LINE_TO, 0.4f, 0.4f);
+
+		final float[] recorded = points(buffer);
+		final float[] restored = points(roundTrip(buffer, step));
+		for (int i = 0; i < recorded.length; i++) {
+			assertEquals("point " + i / 2, recorded[i], restored[i], step / 2 + 1e-3f);
+		}
+	}
+
+	@Test
+	public void offsetsDontAddUp() throws IOException {
+		final float step = 1;
+		final PathBuffer buffer = new PathBuffer(16);
+		buffer.append(PathBuffer.MOVE_TO, 0, 0);
+		float x = 0, y = 0;
+		for (int i = 0; i < 100; i++) {
+			buffer.append(PathBuffer.OFFSET, 0.4f, -0.3f);
+			x += 0.4f;
+			y -= 0.3f;
+		}
+
+		final PathBuffer decoded = roundTrip(buffer, step);
+		float restoredX = 0, restoredY = 0;
+		for (int at = 2; at < decoded.coordCount; at += 2) {
+			restoredX += decoded.coords[at];
+			restoredY += decoded.coords[at + 1];
+		}
+		assertEquals(x, restoredX, step / 2 + 1e-3f);
+		assertEquals(y, restoredY, step / 2 + 1e-3f);
+	}
+
+	@Test
+	public void stepShrinksBeforeScaling() throws IOException {
+		final float step = 1;
+		final PathBuffer buffer = new PathBuffer(16);
+		buffer.append(PathBuffer.MOVE_TO, 0.123f, 0.456f);
+		buffer.append(PathBuffer.LINE_TO, 1.777f, -2.345f);
+		final int at = buffer.append(PathBuffer.MATRIX_TRANSFORMATION);
+		final float[] scale = { 10, 0, 3, 0, -10, 4, 0, 0, 1 };
+		System.arraycopy(scale, 0, buffer.coords, at, 9);
+		buffer.append(PathBuffer.LINE_TO, 5.3f, 5.3f);
+
+		final PathBuffer decoded = roundTrip(buffer, step);
+		// within half a step after scaling by 10
+		for (int i = 0; i < 4; i++) {
+			assertEquals(buffer.coords[i], decoded.coords[i], step / 20 + 1e-4f);
+		}
+		assertArrayEquals("matrix values are raw", scale, Arrays.copyOfRange(decoded.coords, at, at + 9), 0);
+		assertEquals(5, decoded.coords[at + 9], 0);
+		assertEquals(5, decoded.coords[at + 10], 0);
+	}
+
+	@Test
+	public void degenerateTransformations() throws IOException {
+		final float step = 0.5f;
+		final float[][] matrices = { { 0, 0, 0, 0, 0, 0, 0, 0, 1 }, { Float.NaN, 0, 0, 0, 1, 0, 0, 0, 1 },
+				{ 1e30f, 0, 0, 0, 1e30f, 0, 0, 0, 1 } };
+		for (float[] m : matrices) {
+			final PathBuffer buffer = new PathBuffer(16);
+			buffer.append(PathBuffer.MOVE_TO, 1.3f, 2.6f);
+			System.arraycopy(m, 0, buffer.coords, buffer.append(PathBuffer.MATRIX_TRANSFORMATION), 9);
+
+			final PathBuffer decoded = roundTrip(buffer, step);
+			assertEquals(1.3f, decoded.coords[0], step / 2);
+			assertEquals(2.6f, decoded.coords[1], step / 2);
+		}
+	}
+
+	@Test
+	public void rawArguments() throws IOException {
+		final PathBuffer buffer = circle(10.2f, 20.7f, 5.1f, 1);
+		final int at = buffer.append(PathBuffer.ARC_TO);
+		final float[] arc = { 0, 0, 10, 10, 33.3f, -271.1f, 1 };
+		System.arraycopy(arc, 0, buffer.coords, at, arc.length);
+
+		final PathBuffer decoded = roundTrip(buffer, 1);
+		assertArrayEquals(new float[] { 10, 21, 5.1f, 1 }, Arrays.copyOf(decoded.coords, 4), 0);
+		assertArrayEquals(arc, Arrays.copyOfRange(decoded.coords, at, at + arc.length), 0);
+	}
+
+	@Test
+	public void relativeAfterShape() throws IOException {
+		// the end of a circle is unknown, relative calls after it start from
+		// the origin for the encoder and the decoder alike
+		final PathBuffer buffer = circle(10, 10, 5, 0);
+		buffer.append(PathBuffer.R_LINE_TO, 0.4f, 0.4f);
+		buffer.append(PathBuffer.R_LINE_TO, 0.4f, 0.4f);
+		final PathBuffer decoded = roundTrip(buffer, 1);
+		assertEquals(0.8f, decoded.coords[4] + decoded.coords[6], 0.5f);
+		assertEquals(0.8f, decoded.coords[5] + decoded.coords[7], 0.5f);
+	}
+
+	@Test
+	public void truncated() throws IOException {
+		final PathBuffer buffer = circle(1000, 2000, 3, 0);
+		buffer.append(PathBuffer.LINE_TO, 4000, 5000);
+		final byte[] verbs = Arrays.copyOf(buffer.verbs, buffer.verbCount);
+		final byte[] encoded = PathCompression.encode(buffer, 1);
+		for (int length = 0; length < encoded.length; length++) {
+			assertMalformed(verbs, Arrays.copyOf(encoded, length));
+		}
+	}
+
+	@Test
+	public void trailingBytes() throws IOException {
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 1, 2);
+		final byte[] encoded = PathCompression.encode(buffer, 1);
+		assertMalformed(new byte[] { PathBuffer.MOVE_TO }, Arrays.copyOf(encoded, encoded.length + 1));
+	}
+
+	@Test
+	public void unknownVerb() {
+		assertMalformed(new byte[] { 19 }, new byte[0]);
+		assertMalformed(new byte[] { -1 }, new byte[0]);
+	}
+
+	@Test
+	public void overlongVarint() {
+		final byte[] in = new byte[12];
+		Arrays.fill(in, (byte) 0xff);
+		assertMalformed(new byte[] { PathBuffer.MOVE_TO }, in);
+	}
+
+	private static void assertMalformed(byte[] verbs, byte[] in) {
+		try {
+			PathCompression.decode(verbs, in, 1);
+			fail("decoded " + in.length + " bytes");
+		} catch (IOException e) {
+			assertTrue(e.getMessage() != null);
+		}
+	}
+}
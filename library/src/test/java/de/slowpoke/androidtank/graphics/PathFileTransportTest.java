@@ -0,0 +1,132 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.graphics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the file transport with plain file streams in place of
+ * <code>ParcelFileDescriptor</code>s.
+ */
+public class PathFileTransportTest {
+
+	private static final PathFileTransport.Opener<FileInputStream> OPENER = new PathFileTransport.Opener<FileInputStream>() {
+		public FileInputStream open(File file) throws IOException {
+			return new FileInputStream(file);
+		}
+	};
+
+	private File directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = File.createTempFile("transport", null);
+		assertTrue(directory.delete());
+		assertTrue(directory.mkdir());
+	}
+
+	@After
+	public void deleteDirectory() {
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	private static PathBuffer stroke(int points) {
+		final PathBuffer buffer = new PathBuffer(16);
+		buffer.append(PathBuffer.MOVE_TO, 0, 0);
+		for (int i = 1; i < points; i++) {
+			buffer.append(PathBuffer.LINE_TO, i, i % 7);
+		}
+		return buffer;
+	}
+
+	@Test
+	public void threshold() {
+		// one verb and two floats per point
+		final PathBuffer buffer = stroke(100);
+		assertFalse(PathFileTransport.exceeds(buffer, 900));
+		assertTrue(PathFileTransport.exceeds(buffer, 899));
+		assertFalse(PathFileTransport.exceeds(new PathBuffer(16), 0));
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+		final PathBuffer buffer = stroke(100000);
+		assertTrue(PathFileTransport.exceeds(buffer, 256 * 1024));
+
+		final FileInputStream in = PathFileTransport.write(directory, buffer, 0, OPENER);
+		assertNotNull(in);
+		assertEquals("unlinked after opening", 0, directory.list().length);
+		assertEquals(buffer, PathFileTransport.read(in));
+	}
+
+	@Test
+	public void compressedRoundTrip() throws IOException {
+		// integer coordinates are exact multiples of the step
+		final PathBuffer buffer = stroke(1000);
+		final FileInputStream in = PathFileTransport.write(directory, buffer, 0.5f, OPENER);
+		assertNotNull(in);
+		assertEquals(buffer, PathFileTransport.read(in));
+	}
+
+	@Test
+	public void missingDirectoryFallsBack() {
+		final File missing = new File(directory, "missing");
+		assertNull(PathFileTransport.write(missing, stroke(10), 0, OPENER));
+	}
+
+	@Test
+	public void failedOpenFallsBack() {
+		final PathFileTransport.Opener<FileInputStream> failing = new PathFileTransport.Opener<FileInputStream>() {
+			public FileInputStream open(File file) throws IOException {
+				throw new IOException("No descriptors left");
+			}
+		};
+		assertNull(PathFileTransport.write(directory, stroke(10), 0, failing));
+		assertEquals("deleted after a failure", 0, directory.list().length);
+	}
+
+	@Test(expected = IOException.class)
+	public void truncatedFile() throws IOException {
+		final File file = new File(directory, "truncated");
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(new byte[] { 1, 0, 0, 0, 10 });
+		} finally {
+			out.close();
+		}
+		PathFileTransport.read(new FileInputStream(file));
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.graphics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import android.graphics.Path.FillType;
+
+/**
+ * Flattening by {@link PathFlattener} and the queries of
+ * {@link PathSegmentIndex} on the result.
+ */
+public class PathFlattenerTest {
+
+	private static void shape(PathBuffer buffer, byte verb, float... arguments) {
+		final int at = buffer.append(verb);
+		System.arraycopy(arguments, 0, buffer.coords, at, arguments.length);
+	}
+
+	private static float[] points(PathPolyline polyline) {
+		final float[] points = new float[polyline.getPointCount() * 2];
+		polyline.getPoints(0, polyline.getPointCount(), points, 0);
+		return points;
+	}
+
+	@Test
+	public void rect() {
+		final PathBuffer buffer = new PathBuffer(4);
+		shape(buffer, PathBuffer.ADD_RECT, 0, 0, 10, 5, 0);
+		final PathPolyline polyline = PathFlattener.flatten(buffer, 1);
+		assertEquals(1, polyline.getContourCount());
+		assertTrue(polyline.isClosed(0));
+		assertArrayEquals(new float[] { 0, 0, 10, 0, 10, 5, 0, 5, 0, 0 }, points(polyline), 0);
+	}
+
+	@Test
+	public void circleWithinTolerance() {
+		final float tolerance = 0.25f;
+		final float radius = 50;
+		final PathBuffer buffer = new PathBuffer(4);
+		shape(buffer, PathBuffer.ADD_CIRCLE, 100, 100, radius, 0);
+		final PathPolyline polyline = PathFlattener.flatten(buffer, tolerance);
+
+		assertEquals(1, polyline.getContourCount());
+		assertTrue(polyline.isClosed(0));
+		final int count = polyline.getPointCount();
+		assertTrue(count > 8);
+		assertEquals(polyline.getX(0), polyline.getX(count - 1), 0);
+		assertEquals(polyline.getY(0), polyline.getY(count - 1), 0);
+		for (int i = 0; i < count; i++) {
+			final float dx = polyline.getX(i) - 100, dy = polyline.getY(i) - 100;
+			assertEquals(radius, (float) Math.sqrt(dx * dx + dy * dy), 1e-3f);
+			if (i > 0) {
+				// the middle of a chord is furthest from the circle
+				final float mx = (polyline.getX(i) + polyline.getX(i - 1)) / 2 - 100;
+				final float my = (polyline.getY(i) + polyline.getY(i - 1)) / 2 - 100;
+				assertTrue(radius - Math.sqrt(mx * mx + my * my) <= tolerance + 1e-3f);
+			}
+		}
+	}
+
+	@Test
+	public void curvesEndExactly() {
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 0, 0);
+		buffer.append(PathBuffer.QUAD_TO, 50, 100, 100, 0);
+		buffer.append(PathBuffer.R_CUBIC_TO, 10, 10, 20, -10, 30, 0);
+		final PathPolyline polyline = PathFlattener.flatten(buffer, 0.1f);
+		final int last = polyline.getPointCount() - 1;
+		assertFalse(polyline.isClosed(0));
+		assertEquals(130, polyline.getX(last), 0);
+		assertEquals(0, polyline.getY(last), 0);
+
+		// the apex of the quad is at (50, 50)
+		float top = 0;
+		for (int i = 0; i <= last; i++) {
+			top = Math.max(top, polyline.getY(i));
+		}
+		assertEquals(50, top, 0.1f);
+	}
+
+	@Test
+	public void zeroTolerance() {
+		// the number of segments is limited instead of growing without bounds
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 0, 0);
+		buffer.append(PathBuffer.QUAD_TO, 50, 100, 100, 0);
+		final PathPolyline polyline = PathFlattener.flatten(buffer, 0);
+		assertTrue(polyline.getPointCount() <= 1025);
+	}
+
+	@Test
+	public void emptyContoursAreDropped() {
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 1, 1);
+		buffer.append(PathBuffer.MOVE_TO, 2, 2);
+		buffer.append(PathBuffer.LINE_TO, 2, 2);
+		buffer.append(PathBuffer.MOVE_TO, 3, 3);
+		buffer.append(PathBuffer.LINE_TO, 4, 3);
+		buffer.append(PathBuffer.MOVE_TO, 5, 5);
+		final PathPolyline polyline = PathFlattener.flatten(buffer, 1);
+		assertEquals(1, polyline.getContourCount());
+		assertArrayEquals(new float[] { 3, 3, 4, 3 }, points(polyline), 0);
+	}
+
+	@Test
+	public void drawingAfterCloseStartsAtContourStart() {
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 1, 1);
+		buffer.append(PathBuffer.LINE_TO, 5, 1);
+		buffer.append(PathBuffer.CLOSE);
+		buffer.append(PathBuffer.R_LINE_TO, 0, 4);
+		final PathPolyline polyline = PathFlattener.flatten(buffer, 1);
+		assertEquals(2, polyline.getContourCount());
+		assertEquals(3, polyline.getContourStart(1));
+		assertArrayEquals(new float[] { 1, 1, 5, 1, 1, 1, 1, 1, 1, 5 }, points(polyline), 0);
+	}
+
+	@Test
+	public void offsetAndTransformMoveEarlierPoints() {
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 1, 1);
+		buffer.append(PathBuffer.LINE_TO, 2, 1);
+		buffer.append(PathBuffer.OFFSET, 1, 0);
+		shape(buffer, PathBuffer.MATRIX_TRANSFORMATION, 2, 0, 0, 0, 2, 10, 0, 0, 1);
+		buffer.append(PathBuffer.R_LINE_TO, 1, 1);
+		final PathPolyline polyline = PathFlattener.flatten(buffer, 1);
+		assertArrayEquals(new float[] { 4, 12, 6, 12, 7, 13 }, points(polyline), 0);
+	}
+
+	@Test
+	public void isFlattened() {
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 1, 1);
+		buffer.append(PathBuffer.LINE_TO, 2, 1);
+		final PathPolyline polyline = PathFlattener.flatten(buffer, 1);
+		assertTrue(polyline.isFlattened(buffer, 1));
+		assertFalse(polyline.isFlattened(buffer, 0.5f));
+
+		buffer.append(PathBuffer.LINE_TO, 3, 1);
+		assertFalse("appended", polyline.isFlattened(buffer, 1));
+
+		final PathPolyline appended = PathFlattener.flatten(buffer, 1);
+		buffer.compact();
+		assertTrue(appended.isFlattened(buffer, 1));
+		buffer.clear();
+		buffer.append(PathBuffer.MOVE_TO, 1, 1);
+		buffer.append(PathBuffer.LINE_TO, 2, 1);
+		buffer.append(PathBuffer.LINE_TO, 9, 9);
+		assertFalse("changed with the same number of calls", appended.isFlattened(buffer, 1));
+	}
+
+	@Test
+	public void hitTest() {
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 0, 0);
+		buffer.append(PathBuffer.LINE_TO, 10, 0);
+		buffer.append(PathBuffer.LINE_TO, 10, 10);
+		final PathSegmentIndex index = new PathSegmentIndex(PathFlattener.flatten(buffer, 1));
+
+		assertTrue(index.hitTest(5, 1, 1));
+		assertTrue(index.hitTest(11, 5, 1));
+		assertFalse(index.hitTest(5, 2, 1));
+		// the implicit closing edge only counts for filling
+		assertFalse(index.hitTest(5, 5, 1));
+		assertTrue(index.contains(8, 5, FillType.WINDING));
+		assertFalse(index.contains(2, 5, FillType.WINDING));
+	}
+
+	@Test
+	public void distanceOnContourBoundary() {
+		// two contours meeting at (10, 0), the point where one ends and the
+		// next starts is on the outline
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 0, 0);
+		buffer.append(PathBuffer.LINE_TO, 10, 0);
+		buffer.append(PathBuffer.MOVE_TO, 10, 0);
+		buffer.append(PathBuffer.LINE_TO, 10, 10);
+		final PathSegmentIndex index = new PathSegmentIndex(PathFlattener.flatten(buffer, 1));
+
+		assertEquals(0, index.distanceSquared(10, 0, 100), 0);
+		assertEquals(1, index.distanceSquared(11, 0, 100), 0);
+		assertEquals(4, index.distanceSquared(5, -2, 100), 0);
+		// nothing closer than the limit
+		assertEquals(3, index.distanceSquared(50, 50, 3), 0);
+	}
+
+	@Test
+	public void distanceWithManyEdges() {
+		final PathBuffer buffer = new PathBuffer(4);
+		shape(buffer, PathBuffer.ADD_CIRCLE, 0, 0, 100, 0);
+		final PathSegmentIndex index = new PathSegmentIndex(PathFlattener.flatten(buffer, 0.01f));
+		assertEquals(100, Math.sqrt(index.distanceSquared(0, 0, Float.POSITIVE_INFINITY)), 0.02);
+		assertEquals(10, Math.sqrt(index.distanceSquared(0, 110, Float.POSITIVE_INFINITY)), 0.02);
+		assertTrue(index.hitTest(0, -100, 0.1f));
+		assertFalse(index.hitTest(0, 0, 99));
+	}
+
+	@Test
+	public void fillTypes() {
+		// two nested squares in the same direction
+		final PathBuffer buffer = new PathBuffer(4);
+		shape(buffer, PathBuffer.ADD_RECT, 0, 0, 30, 30, 0);
+		shape(buffer, PathBuffer.ADD_RECT, 10, 10, 20, 20, 0);
+		final PathSegmentIndex index = new PathSegmentIndex(PathFlattener.flatten(buffer, 1));
+
+		assertTrue(index.contains(15, 15, FillType.WINDING));
+		assertFalse(index.contains(15, 15, FillType.EVEN_ODD));
+		assertFalse(index.contains(15, 15, FillType.INVERSE_WINDING));
+		assertTrue(index.contains(15, 15, FillType.INVERSE_EVEN_ODD));
+
+		assertTrue(index.contains(5, 15, FillType.WINDING));
+		assertTrue(index.contains(5, 15, FillType.EVEN_ODD));
+		assertFalse(index.contains(40, 15, FillType.WINDING));
+		assertTrue(index.contains(40, 15, FillType.INVERSE_WINDING));
+
+		// a ray through the corners at y = 10 counts every edge once
+		assertTrue(index.contains(5, 10, FillType.EVEN_ODD));
+		assertFalse(index.contains(-5, 10, FillType.EVEN_ODD));
+	}
+
+	@Test
+	public void oppositeDirections() {
+		final PathBuffer buffer = new PathBuffer(4);
+		shape(buffer, PathBuffer.ADD_RECT, 0, 0, 30, 30, 0);
+		shape(buffer, PathBuffer.ADD_RECT, 10, 10, 20, 20, 1);
+		final PathSegmentIndex index = new PathSegmentIndex(PathFlattener.flatten(buffer, 1));
+		assertFalse(index.contains(15, 15, FillType.WINDING));
+		assertTrue(index.contains(5, 5, FillType.WINDING));
+	}
+
+	@Test
+	public void emptyPath() {
+		final PathSegmentIndex index = new PathSegmentIndex(PathFlattener.flatten(new PathBuffer(1), 1));
+		assertFalse(index.hitTest(0, 0, 10));
+		assertEquals(7, index.distanceSquared(0, 0, 7), 0);
+		assertFalse(index.contains(0, 0, FillType.WINDING));
+		assertTrue(index.contains(0, 0, FillType.INVERSE_WINDING));
+	}
+}
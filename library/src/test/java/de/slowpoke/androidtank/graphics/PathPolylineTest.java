@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.graphics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Arc-length lookups of {@link PathPolyline}.
+ */
+public class PathPolylineTest {
+
+	private final float[] pos = new float[2];
+	private final float[] tan = new float[2];
+
+	private static PathPolyline line(float x1, float y1, float x2, float y2) {
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, x1, y1);
+		buffer.append(PathBuffer.LINE_TO, x2, y2);
+		return PathFlattener.flatten(buffer, 1);
+	}
+
+	private void assertPosTan(PathPolyline polyline, float distance, float x, float y, float tx, float ty) {
+		assertTrue(polyline.getPosTan(distance, pos, tan));
+		assertArrayEquals("pos at " + distance, new float[] { x, y }, pos, 1e-4f);
+		assertArrayEquals("tan at " + distance, new float[] { tx, ty }, tan, 1e-6f);
+	}
+
+	@Test
+	public void singleSegment() {
+		final PathPolyline polyline = line(0, 0, 6, 8);
+		assertEquals(10, polyline.getLength(), 0);
+		assertPosTan(polyline, 5, 3, 4, 0.6f, 0.8f);
+		assertPosTan(polyline, 0, 0, 0, 0.6f, 0.8f);
+		assertPosTan(polyline, 10, 6, 8, 0.6f, 0.8f);
+	}
+
+	@Test
+	public void distanceIsClamped() {
+		final PathPolyline polyline = line(0, 0, 10, 0);
+		assertPosTan(polyline, -5, 0, 0, 1, 0);
+		assertPosTan(polyline, Float.NEGATIVE_INFINITY, 0, 0, 1, 0);
+		assertPosTan(polyline, Float.NaN, 0, 0, 1, 0);
+		assertPosTan(polyline, 15, 10, 0, 1, 0);
+		assertPosTan(polyline, Float.POSITIVE_INFINITY, 10, 0, 1, 0);
+	}
+
+	@Test
+	public void nullArguments() {
+		final PathPolyline polyline = line(0, 0, 10, 0);
+		assertTrue(polyline.getPosTan(5, null, tan));
+		assertArrayEquals(new float[] { 1, 0 }, tan, 0);
+		assertTrue(polyline.getPosTan(5, pos, null));
+		assertArrayEquals(new float[] { 5, 0 }, pos, 0);
+	}
+
+	@Test
+	public void noLength() {
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 1, 1);
+		final PathPolyline polyline = PathFlattener.flatten(buffer, 1);
+		assertEquals(0, polyline.getPointCount());
+		assertEquals(0, polyline.getLength(), 0);
+		pos[0] = 42;
+		assertFalse(polyline.getPosTan(0, pos, tan));
+		assertEquals("unchanged", 42, pos[0], 0);
+	}
+
+	@Test
+	public void contourBoundary() {
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 0, 0);
+		buffer.append(PathBuffer.LINE_TO, 10, 0);
+		buffer.append(PathBuffer.MOVE_TO, 100, 100);
+		buffer.append(PathBuffer.LINE_TO, 100, 110);
+		final PathPolyline polyline = PathFlattener.flatten(buffer, 1);
+
+		assertEquals(2, polyline.getContourCount());
+		assertEquals(20, polyline.getLength(), 0);
+		assertEquals(10, polyline.getContourLength(0), 0);
+		assertEquals(10, polyline.getContourLength(1), 0);
+		assertEquals(0, polyline.getContourOffset(0), 0);
+		assertEquals(10, polyline.getContourOffset(1), 0);
+
+		// the gap between the contours has no length, the boundary belongs
+		// to the next contour
+		assertPosTan(polyline, 9.5f, 9.5f, 0, 1, 0);
+		assertPosTan(polyline, 10, 100, 100, 0, 1);
+		assertPosTan(polyline, 10.5f, 100, 100.5f, 0, 1);
+		assertPosTan(polyline, 20, 100, 110, 0, 1);
+	}
+
+	@Test
+	public void closedContour() {
+		final PathBuffer buffer = new PathBuffer(4);
+		final int at = buffer.append(PathBuffer.ADD_RECT);
+		buffer.coords[at + 2] = 10;
+		buffer.coords[at + 3] = 5;
+		final PathPolyline polyline = PathFlattener.flatten(buffer, 1);
+
+		assertEquals(30, polyline.getLength(), 0);
+		assertPosTan(polyline, 12, 10, 2, 0, 1);
+		// the closing edge counts
+		assertPosTan(polyline, 29, 0, 1, 0, -1);
+		assertPosTan(polyline, 30, 0, 0, 0, -1);
+	}
+
+	@Test
+	public void manySegments() {
+		final PathBuffer buffer = new PathBuffer(4);
+		buffer.append(PathBuffer.MOVE_TO, 0, 0);
+		for (int i = 1; i <= 1000; i++) {
+			buffer.append(PathBuffer.LINE_TO, i, (i & 1) == 0 ? 0 : 0.001f);
+		}
+		final PathPolyline polyline = PathFlattener.flatten(buffer, 1);
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(polyline.getPosTan(i + 0.5f, pos, null));
+			assertEquals(i + 0.5f, pos[0], 1e-3f);
+		}
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void pointOutOfBounds() {
+		line(0, 0, 1, 1).getX(2);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void contourOutOfBounds() {
+		line(0, 0, 1, 1).getContourOffset(1);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void pointsOutOfBounds() {
+		line(0, 0, 1, 1).getPoints(1, 2, new float[4], 0);
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.graphics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import android.graphics.Path.Direction;
+import android.graphics.RectF;
+
+/**
+ * Queries of the packed R-tree of {@link PathScene}, checked against a scan
+ * of all paths.
+ */
+public class PathSceneTest {
+
+	private static final int GRID = 40;
+	private static final float CELL = 10;
+
+	private static RectF rect(float left, float top, float right, float bottom) {
+		// the fields are set directly, RectF methods are stubs in unit tests
+		final RectF rect = new RectF();
+		rect.left = left;
+		rect.top = top;
+		rect.right = right;
+		rect.bottom = bottom;
+		return rect;
+	}
+
+	private static PathParcelable square(float left, float top, float size) {
+		final PathParcelable path = new PathParcelable(16);
+		path.addRect(left, top, left + size, top + size, Direction.CW);
+		return path;
+	}
+
+	private static PathParcelable line(float x1, float y1, float x2, float y2) {
+		final PathParcelable path = new PathParcelable(16);
+		path.moveTo(x1, y1);
+		path.lineTo(x2, y2);
+		return path;
+	}
+
+	/**
+	 * A grid of small squares around the origin, so the sort keys include
+	 * negative coordinates.
+	 */
+	private static PathScene grid(List<RectF> bounds) {
+		final PathScene scene = new PathScene();
+		for (int row = 0; row < GRID; row++) {
+			for (int column = 0; column < GRID; column++) {
+				final float left = (column - GRID / 2) * CELL, top = (row - GRID / 2) * CELL;
+				scene.add(square(left, top, CELL / 2));
+				bounds.add(rect(left, top, left + CELL / 2, top + CELL / 2));
+			}
+		}
+		return scene;
+	}
+
+	private static boolean intersects(RectF a, RectF b) {
+		return a.left <= b.right && b.left <= a.right && a.top <= b.bottom && b.top <= a.bottom;
+	}
+
+	@Test
+	public void emptyScene() {
+		final PathScene scene = new PathScene();
+		final List<PathParcelable> result = new ArrayList<PathParcelable>();
+		assertEquals(0, scene.query(rect(-1000, -1000, 1000, 1000), result));
+		assertTrue(result.isEmpty());
+		assertNull(scene.nearest(0, 0, 1000));
+	}
+
+	@Test
+	public void singlePath() {
+		final PathScene scene = new PathScene();
+		final PathParcelable path = square(0, 0, 10);
+		scene.add(path);
+		final List<PathParcelable> result = new ArrayList<PathParcelable>();
+		assertEquals(1, scene.query(rect(5, 5, 6, 6), result));
+		assertSame(path, result.get(0));
+		// touching bounds intersect
+		assertEquals(1, scene.query(rect(10, 10, 20, 20), result));
+		assertEquals(0, scene.query(rect(10.5f, 0, 20, 20), result));
+	}
+
+	@Test
+	public void queryMatchesScan() {
+		final List<RectF> bounds = new ArrayList<RectF>();
+		final PathScene scene = grid(bounds);
+		final List<PathParcelable> result = new ArrayList<PathParcelable>();
+		final Random random = new Random(42);
+		for (int i = 0; i < 200; i++) {
+			final float x = (random.nextFloat() - 0.5f) * GRID * CELL * 1.2f;
+			final float y = (random.nextFloat() - 0.5f) * GRID * CELL * 1.2f;
+			final RectF viewport = rect(x, y, x + random.nextFloat() * 100, y + random.nextFloat() * 100);
+
+			result.clear();
+			final int found = scene.query(viewport, result);
+			assertEquals(found, result.size());
+
+			// the paths are returned in the order they were added
+			int next = 0;
+			for (int path = 0; path < bounds.size(); path++) {
+				if (intersects(bounds.get(path), viewport)) {
+					assertSame("path " + path, scene.get(path), result.get(next++));
+				}
+			}
+			assertEquals(next, found);
+		}
+	}
+
+	@Test
+	public void queryAll() {
+		final List<RectF> bounds = new ArrayList<RectF>();
+		final PathScene scene = grid(bounds);
+		final List<PathParcelable> result = new ArrayList<PathParcelable>();
+		assertEquals(GRID * GRID, scene.query(rect(-1e6f, -1e6f, 1e6f, 1e6f), result));
+		for (int i = 0; i < result.size(); i++) {
+			assertSame(scene.get(i), result.get(i));
+		}
+	}
+
+	@Test
+	public void nearestOutline() {
+		// the point is inside the bounds of the big square, but closer to the
+		// outline of the line
+		final PathScene scene = new PathScene();
+		final PathParcelable big = square(0, 0, 100);
+		final PathParcelable near = line(60, 50, 70, 50);
+		scene.add(big);
+		scene.add(near);
+		assertSame(near, scene.nearest(50, 50, 100));
+		assertSame(big, scene.nearest(50, 2, 100));
+		assertNull(scene.nearest(50, 50, 5));
+		assertSame(near, scene.nearest(50, 50, 11));
+	}
+
+	@Test
+	public void nearestMatchesScan() {
+		final List<RectF> bounds = new ArrayList<RectF>();
+		final PathScene scene = grid(bounds);
+		final Random random = new Random(7);
+		for (int i = 0; i < 100; i++) {
+			final float x = (random.nextFloat() - 0.5f) * GRID * CELL;
+			final float y = (random.nextFloat() - 0.5f) * GRID * CELL;
+			final float maxDistance = random.nextFloat() * 20;
+
+			float best = maxDistance * maxDistance;
+			PathParcelable expected = null;
+			for (int path = 0; path < scene.size(); path++) {
+				final float distance = scene.get(path).distanceSquared(x, y, best);
+				if (distance < best) {
+					best = distance;
+					expected = scene.get(path);
+				}
+			}
+			assertSame(expected, scene.nearest(x, y, maxDistance));
+		}
+	}
+
+	@Test
+	public void removeByIdentity() {
+		final PathScene scene = new PathScene();
+		final PathParcelable first = square(0, 0, 10);
+		final PathParcelable second = square(0, 0, 10);
+		scene.add(first);
+		scene.add(second);
+
+		assertTrue(scene.remove(second));
+		assertFalse(scene.remove(second));
+		assertEquals(1, scene.size());
+		assertSame(first, scene.get(0));
+
+		final List<PathParcelable> result = new ArrayList<PathParcelable>();
+		assertEquals(1, scene.query(rect(0, 0, 10, 10), result));
+		assertSame(first, result.get(0));
+	}
+
+	@Test
+	public void addAfterQuery() {
+		final PathScene scene = new PathScene();
+		scene.add(square(0, 0, 10));
+		final List<PathParcelable> result = new ArrayList<PathParcelable>();
+		assertEquals(0, scene.query(rect(100, 100, 110, 110), result));
+
+		final PathParcelable added = square(100, 100, 10);
+		scene.add(added);
+		assertEquals(1, scene.query(rect(100, 100, 110, 110), result));
+		assertSame(added, result.get(0));
+
+		scene.clear();
+		assertEquals(0, scene.query(rect(-1e6f, -1e6f, 1e6f, 1e6f), result));
+	}
+
+	@Test
+	public void changedPathsAreDetected() {
+		final List<RectF> bounds = new ArrayList<RectF>();
+		final PathScene scene = grid(bounds);
+		final List<PathParcelable> result = new ArrayList<PathParcelable>();
+		final RectF far = rect(1000, 1000, 1010, 1010);
+		assertEquals(0, scene.query(far, result));
+
+		// appending a call that extends the bounds
+		final PathParcelable moved = scene.get(123);
+		moved.lineTo(1005, 1005);
+		assertEquals(1, scene.query(far, result));
+		assertSame(moved, result.get(0));
+		assertSame(moved, scene.nearest(1005, 1006, 2));
+
+		// replacing the recorded calls
+		result.clear();
+		moved.reset();
+		moved.addRect(-1000, -1000, -995, -995, Direction.CW);
+		assertEquals(0, scene.query(far, result));
+		assertEquals(1, scene.query(rect(-1000, -1000, -990, -990), result));
+		assertSame(moved, result.get(0));
+	}
+
+	@Test
+	public void callsWithinBounds() {
+		final PathScene scene = new PathScene();
+		final PathParcelable path = line(0, 0, 10, 10);
+		scene.add(path);
+		final List<PathParcelable> result = new ArrayList<PathParcelable>();
+		assertEquals(1, scene.query(rect(0, 0, 1, 1), result));
+		path.lineTo(5, 5);
+		assertEquals(1, scene.query(rect(0, 0, 1, 1), result));
+		assertEquals(0, scene.query(rect(20, 20, 30, 30), result));
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.graphics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Douglas-Peucker decimation by {@link PathSimplifier}.
+ */
+public class PathSimplifierTest {
+
+	private static void assertContent(PathBuffer buffer, byte[] verbs, float[] coords) {
+		assertArrayEquals("verbs", verbs, Arrays.copyOf(buffer.verbs, buffer.verbCount));
+		assertArrayEquals("coords", coords, Arrays.copyOf(buffer.coords, buffer.coordCount), 0);
+	}
+
+	@Test
+	public void straightLine() {
+		final PathBuffer src = new PathBuffer(16);
+		src.append(PathBuffer.MOVE_TO, 0, 0);
+		for (int i = 1; i <= 10; i++) {
+			src.append(PathBuffer.LINE_TO, i, 0);
+		}
+		assertContent(PathSimplifier.simplify(src, 0), new byte[] { PathBuffer.MOVE_TO, PathBuffer.LINE_TO },
+				new float[] { 0, 0, 10, 0 });
+	}
+
+	@Test
+	public void tolerance() {
+		final PathBuffer src = new PathBuffer(16);
+		src.append(PathBuffer.MOVE_TO, 0, 0);
+		src.append(PathBuffer.LINE_TO, 5, 1);
+		src.append(PathBuffer.LINE_TO, 10, 0);
+
+		assertEquals(2, PathSimplifier.simplify(src, 1).verbCount);
+		assertContent(PathSimplifier.simplify(src, 0.99f), new byte[] { PathBuffer.MOVE_TO, PathBuffer.LINE_TO,
+				PathBuffer.LINE_TO }, new float[] { 0, 0, 5, 1, 10, 0 });
+	}
+
+	@Test
+	public void anchoredAtCurve() {
+		// the run starts at the end point of the curve, not at its first line
+		final PathBuffer src = new PathBuffer(16);
+		src.append(PathBuffer.MOVE_TO, 0, 0);
+		src.append(PathBuffer.QUAD_TO, 5, 5, 10, 0);
+		src.append(PathBuffer.LINE_TO, 10, 5);
+		src.append(PathBuffer.LINE_TO, 10, 10);
+		assertContent(PathSimplifier.simplify(src, 0.1f), new byte[] { PathBuffer.MOVE_TO, PathBuffer.QUAD_TO,
+				PathBuffer.LINE_TO }, new float[] { 0, 0, 5, 5, 10, 0, 10, 10 });
+	}
+
+	@Test
+	public void unanchoredRun() {
+		// after a close the start of the run is unknown, its first point is
+		// kept as the anchor
+		final PathBuffer src = new PathBuffer(16);
+		src.append(PathBuffer.MOVE_TO, 0, 0);
+		src.append(PathBuffer.LINE_TO, 4, 0);
+		src.append(PathBuffer.CLOSE);
+		src.append(PathBuffer.LINE_TO, 0, 4);
+		src.append(PathBuffer.LINE_TO, 0, 5);
+		src.append(PathBuffer.LINE_TO, 0, 6);
+		assertContent(PathSimplifier.simplify(src, 0.1f), new byte[] { PathBuffer.MOVE_TO, PathBuffer.LINE_TO,
+				PathBuffer.CLOSE, PathBuffer.LINE_TO, PathBuffer.LINE_TO }, new float[] { 0, 0, 4, 0, 0, 4, 0, 6 });
+	}
+
+	@Test
+	public void otherCallsAreCopied() {
+		final PathBuffer src = new PathBuffer(16);
+		src.append(PathBuffer.MOVE_TO, 0, 0);
+		src.append(PathBuffer.R_LINE_TO, 1, 0);
+		src.append(PathBuffer.R_LINE_TO, 1, 0);
+		src.append(PathBuffer.OFFSET, 2, 3);
+		final int at = src.append(PathBuffer.ADD_CIRCLE);
+		src.coords[at] = 1;
+		src.coords[at + 1] = 2;
+		src.coords[at + 2] = 3;
+		src.coords[at + 3] = 1;
+
+		assertContent(PathSimplifier.simplify(src, 10), Arrays.copyOf(src.verbs, src.verbCount),
+				Arrays.copyOf(src.coords, src.coordCount));
+	}
+
+	@Test
+	public void longZigzag() {
+		// every point is further than the tolerance from its neighbours'
+		// chord, so all are kept
+		final int points = 10000;
+		final PathBuffer src = new PathBuffer(16);
+		src.append(PathBuffer.MOVE_TO, 0, 0);
+		for (int i = 1; i < points; i++) {
+			src.append(PathBuffer.LINE_TO, i, (i & 1) * 2);
+		}
+		final PathBuffer simplified = PathSimplifier.simplify(src, 0.5f);
+		assertEquals(src, simplified);
+	}
+
+	@Test
+	public void sourceIsUnchanged() {
+		final PathBuffer src = new PathBuffer(16);
+		src.append(PathBuffer.MOVE_TO, 0, 0);
+		src.append(PathBuffer.LINE_TO, 1, 0);
+		src.append(PathBuffer.LINE_TO, 2, 0);
+		final PathBuffer copy = src.snapshot();
+		PathSimplifier.simplify(src, 1);
+		assertEquals(copy, src);
+		assertEquals(3, src.verbCount);
+	}
+
+	@Test
+	public void distanceToSegment() {
+		// perpendicular, beyond either end and to a degenerate segment
+		assertEquals(4, PathSimplifier.distanceSquared(5, 2, 0, 0, 10, 0), 0);
+		assertEquals(25, PathSimplifier.distanceSquared(-3, 4, 0, 0, 10, 0), 0);
+		assertEquals(9, PathSimplifier.distanceSquared(13, 0, 0, 0, 10, 0), 0);
+		assertEquals(2, PathSimplifier.distanceSquared(1, 1, 0, 0, 0, 0), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void negativeTolerance() {
+		new PathParcelable().simplify(-1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void nanTolerance() {
+		new PathParcelable().simplify(Float.NaN);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void infiniteTolerance() {
+		new PathParcelable().simplify(Float.POSITIVE_INFINITY);
+	}
+}
@@ -0,0 +1,659 @@
+/*
+ * Copyright 2015 Brian Hoffmann, slowpoke.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.slowpoke.androidtank.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates the persisters of classes annotated with
+ * <code>de.slowpoke.androidtank.content.PersistableClass</code>. For every
+ * class a <code>&lt;Class&gt;Persister</code> is generated in the same
+ * package, which reads and writes the fields annotated with
+ * <code>PersistableField</code> in declaration order, for both
+ * <code>Parcel</code> and <code>DataOutput</code>. An index class registers
+ * all persisters with <code>Persistable.Helper</code>, so no persister has to
+ * be looked up by reflection.
+ *
+ * <p>
+ * The annotations are referred to by name, so the processor doesn't depend on
+ * the Android library.
+ * </p>
+ */
+@SupportedAnnotationTypes({ PersistableProcessor.CLASS_ANNOTATION, PersistableProcessor.FIELD_ANNOTATION })
+@SupportedOptions(PersistableProcessor.INDEX_OPTION)
+public class PersistableProcessor extends AbstractProcessor {
+
+	static final String CLASS_ANNOTATION = "de.slowpoke.androidtank.content.PersistableClass";
+	static final String FIELD_ANNOTATION = "de.slowpoke.androidtank.content.PersistableField";
+
+	/**
+	 * Processor option naming the generated index class.
+	 */
+	static final String INDEX_OPTION = "persistableIndex";
+
+	private static final String PERSISTABLE = "de.slowpoke.androidtank.content.Persistable";
+	private static final String PERSISTER = PERSISTABLE + ".Persister";
+	private static final String PARCEL = "android.os.Parcel";
+	private static final String DATA_INPUT = "java.io.DataInput";
+	private static final String DATA_OUTPUT = "java.io.DataOutput";
+
+	private enum Kind {
+		PRIMITIVE, STRING, ENUM, PERSISTABLE, ARRAY
+	}
+
+	/**
+	 * A field to be persisted.
+	 */
+	private static final class Field {
+		final String name;
+		final Kind kind;
+
+		/**
+		 * The primitive type, or the component type of arrays.
+		 */
+		final TypeKind primitive;
+
+		/**
+		 * The qualified name of enums and persistables.
+		 */
+		final String type;
+
+		/**
+		 * The constant holding the values of an enum.
+		 */
+		String values;
+
+		Field(String name, Kind kind, TypeKind primitive, String type) {
+			this.name = name;
+			this.kind = kind;
+			this.primitive = primitive;
+			this.type = type;
+		}
+	}
+
+	/**
+	 * The generated persisters by the qualified names of their classes, to be
+	 * registered by the index.
+	 */
+	private final Map<String, String> persisters = new LinkedHashMap<String, String>();
+
+	private String indexPackage;
+	private boolean indexWritten;
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		final TypeElement classAnnotation = processingEnv.getElementUtils().getTypeElement(CLASS_ANNOTATION);
+		final TypeElement fieldAnnotation = processingEnv.getElementUtils().getTypeElement(FIELD_ANNOTATION);
+		if (classAnnotation == null || fieldAnnotation == null) {
+			return false;
+		}
+
+		final List<TypeElement> types = new ArrayList<TypeElement>(
+				ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(classAnnotation)));
+		Collections.sort(types, new Comparator<TypeElement>() {
+			@Override
+			public int compare(TypeElement lhs, TypeElement rhs) {
+				return lhs.getQualifiedName().toString().compareTo(rhs.getQualifiedName().toString());
+			}
+		});
+		for (VariableElement field : ElementFilter.fieldsIn(roundEnv.getElementsAnnotatedWith(fieldAnnotation))) {
+			if (!isAnnotated(field.getEnclosingElement(), classAnnotation)) {
+				error(field, "@PersistableField is only supported in classes annotated with @PersistableClass");
+			}
+		}
+
+		for (TypeElement type : types) {
+			if (indexWritten) {
+				error(type, "@PersistableClass on classes generated after the index was written is not supported");
+				continue;
+			}
+			final List<Field> fields = fields(type, fieldAnnotation);
+			final boolean valid = validate(type);
+			if (fields != null && valid) {
+				writePersister(type, fields);
+			}
+		}
+
+		// the index is written once a round found no further classes, so it is
+		// still compiled in a regular round
+		if (types.isEmpty() && !persisters.isEmpty() && !indexWritten && !roundEnv.processingOver()) {
+			writeIndex();
+			indexWritten = true;
+		}
+		return true;
+	}
+
+	private static boolean isAnnotated(Element element, TypeElement annotation) {
+		for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+			if (((TypeElement) mirror.getAnnotationType().asElement()).equals(annotation)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return whether the class can be instantiated and persisted by a
+	 *         generated persister.
+	 */
+	private boolean validate(TypeElement type) {
+		boolean valid = true;
+		if (type.getKind() != ElementKind.CLASS) {
+			error(type, "@PersistableClass is only supported on classes");
+			return false;
+		}
+		final TypeElement persistable = processingEnv.getElementUtils().getTypeElement(PERSISTABLE);
+		if (persistable == null
+				|| !processingEnv.getTypeUtils().isAssignable(type.asType(),
+						processingEnv.getTypeUtils().erasure(persistable.asType()))) {
+			error(type, "@PersistableClass requires the class to implement Persistable");
+			valid = false;
+		}
+		if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+			error(type, "@PersistableClass is not supported on abstract classes");
+			valid = false;
+		}
+		if (!type.getTypeParameters().isEmpty()) {
+			error(type, "@PersistableClass is not supported on generic classes");
+			valid = false;
+		}
+		for (Element enclosing = type; enclosing.getKind() != ElementKind.PACKAGE; enclosing = enclosing
+				.getEnclosingElement()) {
+			if (enclosing.getModifiers().contains(Modifier.PRIVATE)) {
+				error(type, "@PersistableClass is not supported on private classes");
+				valid = false;
+				break;
+			}
+		}
+		if (type.getNestingKind() != NestingKind.TOP_LEVEL && !type.getModifiers().contains(Modifier.STATIC)) {
+			error(type, "@PersistableClass is not supported on inner classes, make the class static");
+			valid = false;
+		}
+
+		boolean constructor = false;
+		for (ExecutableElement method : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+			if (method.getParameters().isEmpty() && !method.getModifiers().contains(Modifier.PRIVATE)) {
+				constructor = true;
+			}
+		}
+		if (!constructor) {
+			error(type, "@PersistableClass requires a constructor without arguments that is not private");
+			valid = false;
+		}
+		return valid;
+	}
+
+	/**
+	 * @return the annotated fields in declaration order, or <code>null</code>
+	 *         if one of them can't be persisted.
+	 */
+	private List<Field> fields(TypeElement type, TypeElement fieldAnnotation) {
+		final List<Field> fields = new ArrayList<Field>();
+		final Map<String, String> values = new LinkedHashMap<String, String>();
+		boolean valid = true;
+		for (VariableElement element : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+			if (!isAnnotated(element, fieldAnnotation)) {
+				continue;
+			}
+			final Set<Modifier> modifiers = element.getModifiers();
+			if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.STATIC)
+					|| modifiers.contains(Modifier.FINAL)) {
+				error(element, "@PersistableField is not supported on private, static or final fields");
+				valid = false;
+				continue;
+			}
+			final Field field = field(element);
+			if (field == null) {
+				error(element, "@PersistableField doesn't support fields of type " + element.asType());
+				valid = false;
+				continue;
+			}
+			if (field.kind == Kind.ENUM) {
+				field.values = values.get(field.type);
+				if (field.values == null) {
+					field.values = "VALUES_" + values.size();
+					values.put(field.type, field.values);
+				}
+			}
+			fields.add(field);
+		}
+		return valid ? fields : null;
+	}
+
+	private Field field(VariableElement element) {
+		final String name = element.getSimpleName().toString();
+		final TypeMirror type = element.asType();
+		if (type.getKind().isPrimitive()) {
+			return new Field(name, Kind.PRIMITIVE, type.getKind(), null);
+		}
+		if (type.getKind() == TypeKind.ARRAY) {
+			final TypeKind component = ((ArrayType) type).getComponentType().getKind();
+			switch (component) {
+			case BYTE:
+			case INT:
+			case LONG:
+			case FLOAT:
+			case DOUBLE:
+				return new Field(name, Kind.ARRAY, component, null);
+			default:
+				return null;
+			}
+		}
+		if (type.getKind() != TypeKind.DECLARED) {
+			return null;
+		}
+
+		final TypeElement typeElement = (TypeElement) ((DeclaredType) type).asElement();
+		final String qualifiedName = typeElement.getQualifiedName().toString();
+		if (qualifiedName.equals("java.lang.String")) {
+			return new Field(name, Kind.STRING, null, null);
+		}
+		if (typeElement.getKind() == ElementKind.ENUM) {
+			return new Field(name, Kind.ENUM, null, qualifiedName);
+		}
+		if (hasPersister(typeElement)) {
+			return new Field(name, Kind.PERSISTABLE, null, qualifiedName);
+		}
+		return null;
+	}
+
+	/**
+	 * @return whether the type declares a static <code>CREATOR</code> of type
+	 *         <code>Persistable.Persister</code>.
+	 */
+	private boolean hasPersister(TypeElement type) {
+		final TypeElement persister = processingEnv.getElementUtils().getTypeElement(PERSISTER);
+		if (persister == null || !type.getTypeParameters().isEmpty()) {
+			return false;
+		}
+		for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+			if (field.getSimpleName().contentEquals("CREATOR") && field.getModifiers().contains(Modifier.STATIC)) {
+				return processingEnv.getTypeUtils().isAssignable(processingEnv.getTypeUtils().erasure(field.asType()),
+						processingEnv.getTypeUtils().erasure(persister.asType()));
+			}
+		}
+		return false;
+	}
+
+	private void writePersister(TypeElement type, List<Field> fields) {
+		final String packageName = packageOf(type);
+		final String className = type.getQualifiedName().toString();
+		final StringBuilder simpleName = new StringBuilder();
+		for (Element enclosing = type; enclosing.getKind() != ElementKind.PACKAGE; enclosing = enclosing
+				.getEnclosingElement()) {
+			simpleName.insert(0, simpleName.length() == 0 ? "" : "_").insert(0, enclosing.getSimpleName());
+		}
+		final String persisterName = simpleName.append("Persister").toString();
+
+		final StringBuilder s = new StringBuilder();
+		header(s, packageName);
+		s.append("/**\n");
+		s.append(" * Reads and writes the persistable fields of {@link ").append(className).append("}.\n");
+		s.append(" */\n");
+		s.append("public final class ").append(persisterName).append(" implements ").append(PERSISTER).append('<')
+				.append(className).append("> {\n\n");
+		s.append("\tpublic static final ").append(persisterName).append(" INSTANCE = new ").append(persisterName)
+				.append("();\n\n");
+		final Map<String, String> values = new LinkedHashMap<String, String>();
+		for (Field field : fields) {
+			if (field.kind == Kind.ENUM && !values.containsKey(field.values)) {
+				values.put(field.values, field.type);
+				s.append("\tprivate static final ").append(field.type).append("[] ").append(field.values).append(" = ")
+						.append(field.type).append(".values();\n\n");
+			}
+		}
+		s.append("\tprivate ").append(persisterName).append("() {\n\t}\n\n");
+
+		s.append("\tpublic static void writeToParcel(").append(className).append(" source, ").append(PARCEL)
+				.append(" out, int flags) {\n");
+		for (Field field : fields) {
+			writeToParcel(s, field);
+		}
+		s.append("\t}\n\n");
+
+		s.append("\tpublic static void writeToPersist(").append(className).append(" source, ").append(DATA_OUTPUT)
+				.append(" out) throws java.io.IOException {\n");
+		for (Field field : fields) {
+			writeToPersist(s, field);
+		}
+		s.append("\t}\n\n");
+
+		s.append("\tpublic static void readFromParcel(").append(className).append(" target, ").append(PARCEL)
+				.append(" in) {\n");
+		for (Field field : fields) {
+			readFromParcel(s, field, className);
+		}
+		s.append("\t}\n\n");
+
+		s.append("\tpublic static void readFromPersist(").append(className).append(" target, ").append(DATA_INPUT)
+				.append(" in) throws java.io.IOException {\n");
+		for (Field field : fields) {
+			readFromPersist(s, field, className);
+		}
+		s.append("\t}\n\n");
+
+		s.append("\t@Override\n");
+		s.append("\tpublic ").append(className).append(" createFromParcel(").append(PARCEL).append(" in) {\n");
+		s.append("\t\tfinal ").append(className).append(" target = new ").append(className).append("();\n");
+		s.append("\t\treadFromParcel(target, in);\n");
+		s.append("\t\treturn target;\n");
+		s.append("\t}\n\n");
+
+		s.append("\t@Override\n");
+		s.append("\tpublic ").append(className).append(" createFromPersist(").append(DATA_INPUT)
+				.append(" in) throws java.io.IOException {\n");
+		s.append("\t\tfinal ").append(className).append(" target = new ").append(className).append("();\n");
+		s.append("\t\treadFromPersist(target, in);\n");
+		s.append("\t\treturn target;\n");
+		s.append("\t}\n\n");
+
+		s.append("\t@Override\n");
+		s.append("\tpublic ").append(className).append("[] newArray(int size) {\n");
+		s.append("\t\treturn new ").append(className).append("[size];\n");
+		s.append("\t}\n");
+		s.append("}\n");
+
+		final String qualifiedName = packageName.isEmpty() ? persisterName : packageName + "." + persisterName;
+		if (write(qualifiedName, s, type)) {
+			persisters.put(className, qualifiedName);
+			if (indexPackage == null) {
+				indexPackage = packageName;
+			}
+		}
+	}
+
+	private static void writeToParcel(StringBuilder s, Field field) {
+		final String value = "source." + field.name;
+		switch (field.kind) {
+		case PRIMITIVE:
+			switch (field.primitive) {
+			case BOOLEAN:
+				s.append("\t\tout.writeInt(").append(value).append(" ? 1 : 0);\n");
+				break;
+			case BYTE:
+				s.append("\t\tout.writeByte(").append(value).append(");\n");
+				break;
+			case CHAR:
+			case SHORT:
+				s.append("\t\tout.writeInt(").append(value).append(");\n");
+				break;
+			default:
+				s.append("\t\tout.write").append(name(field.primitive)).append('(').append(value).append(");\n");
+				break;
+			}
+			break;
+		case STRING:
+			s.append("\t\tout.writeString(").append(value).append(");\n");
+			break;
+		case ENUM:
+			s.append("\t\tout.writeInt(").append(value).append(" == null ? -1 : ").append(value)
+					.append(".ordinal());\n");
+			break;
+		case PERSISTABLE:
+			s.append("\t\tif (").append(value).append(" == null) {\n");
+			s.append("\t\t\tout.writeInt(0);\n");
+			s.append("\t\t} else {\n");
+			s.append("\t\t\tout.writeInt(1);\n");
+			s.append("\t\t\t").append(value).append(".writeToParcel(out, flags);\n");
+			s.append("\t\t}\n");
+			break;
+		case ARRAY:
+			s.append("\t\tout.write").append(name(field.primitive)).append("Array(").append(value).append(");\n");
+			break;
+		}
+	}
+
+	private static void writeToPersist(StringBuilder s, Field field) {
+		final String value = "source." + field.name;
+		switch (field.kind) {
+		case PRIMITIVE:
+			s.append("\t\tout.write").append(name(field.primitive)).append('(').append(value).append(");\n");
+			break;
+		case STRING:
+			s.append("\t\tout.writeBoolean(").append(value).append(" != null);\n");
+			s.append("\t\tif (").append(value).append(" != null) {\n");
+			s.append("\t\t\tout.writeUTF(").append(value).append(");\n");
+			s.append("\t\t}\n");
+			break;
+		case ENUM:
+			s.append("\t\tout.writeInt(").append(value).append(" == null ? -1 : ").append(value)
+					.append(".ordinal());\n");
+			break;
+		case PERSISTABLE:
+			s.append("\t\tout.writeBoolean(").append(value).append(" != null);\n");
+			s.append("\t\tif (").append(value).append(" != null) {\n");
+			s.append("\t\t\t").append(value).append(".writeToPersist(out);\n");
+			s.append("\t\t}\n");
+			break;
+		case ARRAY:
+			s.append("\t\tif (").append(value).append(" == null) {\n");
+			s.append("\t\t\tout.writeInt(-1);\n");
+			s.append("\t\t} else {\n");
+			s.append("\t\t\tout.writeInt(").append(value).append(".length);\n");
+			if (field.primitive == TypeKind.BYTE) {
+				s.append("\t\t\tout.write(").append(value).append(");\n");
+			} else {
+				s.append("\t\t\tfor (int i = 0; i < ").append(value).append(".length; i++) {\n");
+				s.append("\t\t\t\tout.write").append(name(field.primitive)).append('(').append(value)
+						.append("[i]);\n");
+				s.append("\t\t\t}\n");
+			}
+			s.append("\t\t}\n");
+			break;
+		}
+	}
+
+	private static void readFromParcel(StringBuilder s, Field field, String className) {
+		final String target = "target." + field.name;
+		switch (field.kind) {
+		case PRIMITIVE:
+			switch (field.primitive) {
+			case BOOLEAN:
+				s.append("\t\t").append(target).append(" = in.readInt() != 0;\n");
+				break;
+			case BYTE:
+				s.append("\t\t").append(target).append(" = in.readByte();\n");
+				break;
+			case CHAR:
+				s.append("\t\t").append(target).append(" = (char) in.readInt();\n");
+				break;
+			case SHORT:
+				s.append("\t\t").append(target).append(" = (short) in.readInt();\n");
+				break;
+			default:
+				s.append("\t\t").append(target).append(" = in.read").append(name(field.primitive)).append("();\n");
+				break;
+			}
+			break;
+		case STRING:
+			s.append("\t\t").append(target).append(" = in.readString();\n");
+			break;
+		case ENUM:
+			readOrdinal(s, field, className, "android.os.BadParcelableException");
+			break;
+		case PERSISTABLE:
+			s.append("\t\t").append(target).append(" = in.readInt() != 0 ? ").append(field.type)
+					.append(".CREATOR.createFromParcel(in) : null;\n");
+			break;
+		case ARRAY:
+			s.append("\t\t").append(target).append(" = in.create").append(name(field.primitive))
+					.append("Array();\n");
+			break;
+		}
+	}
+
+	private static void readFromPersist(StringBuilder s, Field field, String className) {
+		final String target = "target." + field.name;
+		switch (field.kind) {
+		case PRIMITIVE:
+			s.append("\t\t").append(target).append(" = in.read").append(name(field.primitive)).append("();\n");
+			break;
+		case STRING:
+			s.append("\t\t").append(target).append(" = in.readBoolean() ? in.readUTF() : null;\n");
+			break;
+		case ENUM:
+			readOrdinal(s, field, className, "java.io.IOException");
+			break;
+		case PERSISTABLE:
+			s.append("\t\t").append(target).append(" = in.readBoolean() ? ").append(field.type)
+					.append(".CREATOR.createFromPersist(in) : null;\n");
+			break;
+		case ARRAY:
+			final String component = field.primitive.name().toLowerCase(Locale.US);
+			s.append("\t\t{\n");
+			s.append("\t\t\tfinal int length = in.readInt();\n");
+			s.append("\t\t\tif (length < -1) {\n");
+			s.append("\t\t\t\tthrow new java.io.IOException(\"Malformed ").append(className)
+					.append(", negative length \" + length);\n");
+			s.append("\t\t\t}\n");
+			s.append("\t\t\tfinal ").append(component).append("[] value = length < 0 ? null : new ").append(component)
+					.append("[length];\n");
+			if (field.primitive == TypeKind.BYTE) {
+				s.append("\t\t\tif (value != null) {\n");
+				s.append("\t\t\t\tin.readFully(value);\n");
+				s.append("\t\t\t}\n");
+			} else {
+				s.append("\t\t\tfor (int i = 0; i < length; i++) {\n");
+				s.append("\t\t\t\tvalue[i] = in.read").append(name(field.primitive)).append("();\n");
+				s.append("\t\t\t}\n");
+			}
+			s.append("\t\t\t").append(target).append(" = value;\n");
+			s.append("\t\t}\n");
+			break;
+		}
+	}
+
+	private static void readOrdinal(StringBuilder s, Field field, String className, String exception) {
+		s.append("\t\t{\n");
+		s.append("\t\t\tfinal int ordinal = in.readInt();\n");
+		s.append("\t\t\tif (ordinal < -1 || ordinal >= ").append(field.values).append(".length) {\n");
+		s.append("\t\t\t\tthrow new ").append(exception).append("(\"Malformed ").append(className).append(", unknown ")
+				.append(field.type).append(" \" + ordinal);\n");
+		s.append("\t\t\t}\n");
+		s.append("\t\t\ttarget.").append(field.name).append(" = ordinal < 0 ? null : ").append(field.values)
+				.append("[ordinal];\n");
+		s.append("\t\t}\n");
+	}
+
+	/**
+	 * @return the name of the primitive type as used by the methods of
+	 *         <code>Parcel</code> and <code>DataOutput</code>, e.g.
+	 *         <code>Int</code>.
+	 */
+	private static String name(TypeKind primitive) {
+		final String name = primitive.name().toLowerCase(Locale.US);
+		return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+	}
+
+	private void writeIndex() {
+		String qualifiedName = processingEnv.getOptions().get(INDEX_OPTION);
+		if (qualifiedName == null || qualifiedName.isEmpty()) {
+			qualifiedName = indexPackage.isEmpty() ? "PersistableIndex" : indexPackage + ".PersistableIndex";
+		}
+		final int dot = qualifiedName.lastIndexOf('.');
+		final String packageName = dot < 0 ? "" : qualifiedName.substring(0, dot);
+		final String simpleName = qualifiedName.substring(dot + 1);
+
+		final StringBuilder s = new StringBuilder();
+		header(s, packageName);
+		s.append("/**\n");
+		s.append(" * Registers the generated persisters with {@link ").append(PERSISTABLE).append(".Helper}, call\n");
+		s.append(" * {@link #register()} before the first persistable is restored.\n");
+		s.append(" */\n");
+		s.append("public final class ").append(simpleName).append(" {\n\n");
+		s.append("\tprivate ").append(simpleName).append("() {\n\t}\n\n");
+		s.append("\tpublic static void register() {\n");
+		for (Map.Entry<String, String> persister : persisters.entrySet()) {
+			s.append("\t\t").append(PERSISTABLE).append(".Helper.register(").append(persister.getKey())
+					.append(".class, ").append(persister.getValue()).append(".INSTANCE);\n");
+		}
+		s.append("\t}\n");
+		s.append("}\n");
+		write(qualifiedName, s);
+	}
+
+	private static void header(StringBuilder s, String packageName) {
+		s.append("// Generated by ").append(PersistableProcessor.class.getName()).append(", do not edit.\n");
+		if (!packageName.isEmpty()) {
+			s.append("package ").append(packageName).append(";\n");
+		}
+		s.append('\n');
+	}
+
+	private String packageOf(TypeElement type) {
+		final PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(type);
+		return packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+	}
+
+	private boolean write(String qualifiedName, CharSequence source, Element... originatingElements) {
+		try {
+			final JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName,
+					originatingElements);
+			final Writer writer = file.openWriter();
+			try {
+				writer.append(source);
+			} finally {
+				writer.close();
+			}
+			return true;
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+					"Failed to write " + qualifiedName + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+	}
+}